@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package org.glassfish.grizzly.npn;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Utility class to invalidate the server certificates cached by the engine
+ * when <code>org.glassfish.grizzly.npn.serverCertificateCache</code> is
+ * enabled.  The alias chosen by a {@code KeyManager}, along with its key,
+ * chain and encoded Certificate message, is then reused by every handshake
+ * asking for the same key type and server names with the same signature
+ * algorithms, until the certificate expires or this class invalidates it.
+ * The {@code KeyManager}'s own checks are skipped for cached choices, so
+ * this must also be called if it would choose differently for any other
+ * reason.
+ */
+public class CertificateCacheSupport {
+
+    private static final AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * Discard all cached server certificates.  This must be called after
+     * the key material behind a {@code KeyManager} has been replaced, for
+     * instance when a key store has been reloaded in place.  Handshakes
+     * already in progress keep the certificates they have chosen.
+     */
+    public static void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * @return a counter which changes whenever {@link #invalidate()} is
+     * called.
+     */
+    public static int getGeneration() {
+        return generation.get();
+    }
+
+}
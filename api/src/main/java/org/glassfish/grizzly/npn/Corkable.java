@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package org.glassfish.grizzly.npn;
+
+/**
+ * <p>
+ *
+ * Implemented by {@code SSLEngine}s which are able to coalesce the
+ * application data of several {@code wrap()} calls into a single TLS record.
+ * This is useful for protocols like HTTP/2 which tend to write bursts of
+ * small frames.
+ *
+ * <p>
+ *
+ * While corked, {@code wrap()} consumes application data without producing
+ * network data until a full record has been accumulated.  Once uncorked,
+ * the next {@code wrap()} call, which may be made with empty source buffers,
+ * writes out whatever is still buffered.  Buffered data is also written
+ * ahead of a close_notify alert or a renegotiation.
+ *
+ * <p>
+ */
+public interface Corkable {
+
+    /**
+     * Start accumulating application data passed to {@code wrap()}.
+     */
+    void cork();
+
+    /**
+     * Stop accumulating application data.  Any buffered data will be written
+     * by the next {@code wrap()} call.
+     */
+    void uncork();
+
+    /**
+     * @return <code>true</code> if application data is currently being
+     *  accumulated, otherwise <code>false</code>.
+     */
+    boolean isCorked();
+
+}
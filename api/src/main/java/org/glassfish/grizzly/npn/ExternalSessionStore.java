@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package org.glassfish.grizzly.npn;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * <p>
+ *
+ * A session store shared by several servers, so that a client can resume
+ * its session on whichever server it reaches.  See
+ * {@link SessionCacheSupport}.
+ *
+ * <p>
+ *
+ * Server handshakes consult the store when a session to resume isn't
+ * found locally, giving up on it after a short time budget, in which
+ * case a full handshake is made.  Unless the store is non-blocking, the
+ * lookup runs on a background thread, which an {@code SSLEngine} waits
+ * for in a delegated task.  New sessions are handed to the store in
+ * batches, from a background thread.
+ *
+ * <p>
+ *
+ * Sessions are stored in encrypted form: all servers sharing a store
+ * must share their session ticket keys too.  Implementations must be
+ * thread safe.
+ *
+ * <p>
+ */
+public interface ExternalSessionStore {
+
+    /**
+     * @return the state stored for the specified session id, or
+     *  <code>null</code>.  States past their expiration time should not be
+     *  returned.
+     */
+    byte[] get(byte[] sessionId) throws IOException;
+
+    /**
+     * Stores the specified entries, replacing those with the same session
+     * ids.
+     */
+    void put(List<Entry> entries) throws IOException;
+
+    /**
+     * @return <code>true</code> if {@link #get(byte[])} answers right away,
+     *  without any I/O, in which case handshakes look sessions up
+     *  themselves rather than on a background thread.
+     */
+    boolean isNonBlocking();
+
+
+    /**
+     * The state of a session to store.
+     */
+    final class Entry {
+
+        private final byte[] sessionId;
+        private final byte[] state;
+        private final long expirationTime;
+
+        public Entry(final byte[] sessionId, final byte[] state,
+                     final long expirationTime) {
+            this.sessionId = sessionId;
+            this.state = state;
+            this.expirationTime = expirationTime;
+        }
+
+        public byte[] getSessionId() {
+            return sessionId;
+        }
+
+        public byte[] getState() {
+            return state;
+        }
+
+        /**
+         * @return the time in milliseconds since the epoch after which the
+         *  session can't be resumed anymore.
+         */
+        public long getExpirationTime() {
+            return expirationTime;
+        }
+
+    } // END Entry
+
+}
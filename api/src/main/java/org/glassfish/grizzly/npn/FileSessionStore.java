@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package org.glassfish.grizzly.npn;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * <p>
+ *
+ * An {@link ExternalSessionStore} keeping each session in a file of a
+ * directory, for testing cluster wide resumption with several servers
+ * on one host, or sharing the directory over a network file system.
+ *
+ * <p>
+ *
+ * Files are named after the hex encoded session id and written
+ * atomically.  Expired sessions are deleted when looked up; nothing else
+ * cleans the directory up.
+ *
+ * <p>
+ */
+public class FileSessionStore implements ExternalSessionStore {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File directory;
+
+    public FileSessionStore(final File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create directory " + directory);
+        }
+        this.directory = directory;
+    }
+
+    @Override
+    public byte[] get(final byte[] sessionId) throws IOException {
+        final File file = fileFor(sessionId);
+        final DataInputStream in;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            if (in.readLong() > System.currentTimeMillis()) {
+                final byte[] state = new byte[(int) file.length() - 8];
+                in.readFully(state);
+                return state;
+            }
+        } finally {
+            in.close();
+        }
+        file.delete();
+        return null;
+    }
+
+    @Override
+    public void put(final List<Entry> entries) throws IOException {
+        for (Entry entry : entries) {
+            final File file = fileFor(entry.getSessionId());
+            // the prefix of a temporary file needs at least 3 characters
+            final File temp = File.createTempFile(file.getName() + "-", ".tmp",
+                    directory);
+            try {
+                final DataOutputStream out =
+                        new DataOutputStream(new FileOutputStream(temp));
+                try {
+                    out.writeLong(entry.getExpirationTime());
+                    out.write(entry.getState());
+                } finally {
+                    out.close();
+                }
+                Files.move(temp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * @return <code>false</code>, lookups read a file.
+     */
+    @Override
+    public boolean isNonBlocking() {
+        return false;
+    }
+
+    private File fileFor(final byte[] sessionId) {
+        final char[] name = new char[sessionId.length * 2];
+        for (int i = 0; i < sessionId.length; i++) {
+            name[2 * i] = HEX[(sessionId[i] >> 4) & 0xF];
+            name[2 * i + 1] = HEX[sessionId[i] & 0xF];
+        }
+        return new File(directory, new String(name));
+    }
+
+}
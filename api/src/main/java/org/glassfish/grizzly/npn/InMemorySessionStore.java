@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package org.glassfish.grizzly.npn;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ *
+ * An {@link ExternalSessionStore} keeping sessions in memory, for sharing
+ * sessions between the {@code SSLContext}s of one JVM, and as a reference
+ * for other implementations.
+ *
+ * <p>
+ *
+ * Expired sessions are dropped when looked up, and by a sweep run every
+ * {@code sweepInterval} stores.
+ *
+ * <p>
+ */
+public class InMemorySessionStore implements ExternalSessionStore {
+
+    private static final int DEFAULT_SWEEP_INTERVAL = 1024;
+
+    private final ConcurrentHashMap<ByteBuffer, Entry> entries =
+            new ConcurrentHashMap<ByteBuffer, Entry>();
+    private final int sweepInterval;
+    private int stores;
+
+    public InMemorySessionStore() {
+        this(DEFAULT_SWEEP_INTERVAL);
+    }
+
+    /**
+     * @param sweepInterval the number of entries stored between sweeps of
+     *  expired sessions.
+     */
+    public InMemorySessionStore(final int sweepInterval) {
+        if (sweepInterval < 1) {
+            throw new IllegalArgumentException(
+                    "sweepInterval must be positive: " + sweepInterval);
+        }
+        this.sweepInterval = sweepInterval;
+    }
+
+    @Override
+    public byte[] get(final byte[] sessionId) {
+        final ByteBuffer key = ByteBuffer.wrap(sessionId);
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.getExpirationTime() <= System.currentTimeMillis()) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.getState();
+    }
+
+    @Override
+    public void put(final List<Entry> newEntries) {
+        for (Entry entry : newEntries) {
+            entries.put(ByteBuffer.wrap(entry.getSessionId()), entry);
+        }
+
+        boolean sweep;
+        synchronized (this) {
+            stores += newEntries.size();
+            sweep = stores >= sweepInterval;
+            if (sweep) {
+                stores = 0;
+            }
+        }
+        if (sweep) {
+            final long now = System.currentTimeMillis();
+            for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+                if (it.next().getExpirationTime() <= now) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code>, lookups only read the map.
+     */
+    @Override
+    public boolean isNonBlocking() {
+        return true;
+    }
+
+    /**
+     * @return the number of stored sessions, including expired ones which
+     *  haven't been dropped yet.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    Collection<Entry> entries() {
+        return entries.values();
+    }
+
+}
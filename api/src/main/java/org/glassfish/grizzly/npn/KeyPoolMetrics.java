@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package org.glassfish.grizzly.npn;
+
+import java.util.Map;
+
+/**
+ * <p>
+ *
+ * Statistics of the pool of pre-generated ephemeral ECDHE and DHE key
+ * pairs, which servers use if the
+ * {@code org.glassfish.grizzly.npn.ephemeralKeyPool} system property is
+ * <code>true</code>, and clients if the
+ * {@code org.glassfish.grizzly.npn.clientHelloTemplates} one is.  See
+ * {@link KeyPoolSupport}.
+ *
+ * <p>
+ */
+public interface KeyPoolMetrics {
+
+    /**
+     * @return the number of key pairs ready for use, by pool.  Pools are
+     *  named after their named curve id, such as {@code "ecdhe-23"}, or
+     *  their group size, such as {@code "dhe-2048"}.  The key pairs of
+     *  each {@code SSLContext}'s {@code SecureRandom} are pooled apart,
+     *  their depths are added up.
+     */
+    Map<String, Integer> getDepths();
+
+    /**
+     * @return the number of key pairs each pool holds at most.
+     */
+    int getCapacity();
+
+    /**
+     * @return the number of key pairs taken from a pool.
+     */
+    long getHits();
+
+    /**
+     * @return the number of key pairs generated by a handshake because its
+     *  pool was empty.
+     */
+    long getMisses();
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package org.glassfish.grizzly.npn;
+
+/**
+ * Utility class to obtain the {@link KeyPoolMetrics} of the ephemeral key
+ * pool, which the engine registers when a handshake first uses the pool:
+ * only if the {@code org.glassfish.grizzly.npn.ephemeralKeyPool} or the
+ * {@code org.glassfish.grizzly.npn.clientHelloTemplates} system property
+ * is <code>true</code>.
+ */
+public class KeyPoolSupport {
+
+    private static volatile KeyPoolMetrics metrics;
+
+    /**
+     * Register the {@link KeyPoolMetrics} of the active pool.
+     */
+    public static void setMetrics(final KeyPoolMetrics keyPoolMetrics) {
+        metrics = keyPoolMetrics;
+    }
+
+    /**
+     * @return the {@link KeyPoolMetrics} of the active pool, or
+     * <code>null</code> if no handshake has used the pool yet, which is
+     * always the case if neither of the above properties is set.
+     */
+    public static KeyPoolMetrics getMetrics() {
+        return metrics;
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package org.glassfish.grizzly.npn;
+
+/**
+ * <p>
+ *
+ * Implemented by {@code SSLEngine}s which can be reused for another
+ * connection once closed, sparing the allocation of a new engine and its
+ * buffers.  See {@link SSLEnginePool}.
+ *
+ * <p>
+ *
+ * After a reset, the engine behaves like one freshly created by its
+ * {@code SSLContext} with the same peer host and port: any configuration
+ * (client mode, enabled protocols and cipher suites, {@code SSLParameters},
+ * ...) has to be applied again.  Negotiators registered with
+ * {@link NegotiationSupport} aren't touched by {@link #reset()}, but
+ * {@link SSLEnginePool#release(SSLEngine)} removes them before pooling
+ * the engine.
+ *
+ * <p>
+ */
+public interface Resettable {
+
+    /**
+     * Returns the engine to its initial state, discarding all state of the
+     * previous connection.
+     *
+     * @throws IllegalStateException if the engine has been used and hasn't
+     *  been closed in both directions.
+     */
+    void reset();
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package org.glassfish.grizzly.npn;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ *
+ * A pool of {@code SSLEngine}s created by one {@code SSLContext}, for
+ * applications handling many short-lived connections.  Engines are kept
+ * per peer host and port, as these can't be changed once an engine has
+ * been created.  Closed engines returned by {@link #release(SSLEngine)} are
+ * reset and handed out again by {@link #acquire(String, int)}.
+ *
+ * <p>
+ *
+ * Only engines implementing {@link Resettable} can be pooled.  Acquired
+ * engines are in their initial state and must be configured like new
+ * ones.  A peer's queue is dropped once its last idle engine has been
+ * acquired, so peers which aren't connected to anymore don't keep
+ * entries in the pool.  This class is thread safe.
+ *
+ * <p>
+ */
+public class SSLEnginePool {
+
+    private final SSLContext sslContext;
+    private final int maxIdlePerPeer;
+    private final ConcurrentHashMap<String, Queue<SSLEngine>> idleEngines =
+            new ConcurrentHashMap<String, Queue<SSLEngine>>(4);
+
+    /**
+     * @param sslContext the {@code SSLContext} creating the engines.
+     * @param maxIdlePerPeer the maximum number of idle engines kept for
+     *  each peer host and port.
+     */
+    public SSLEnginePool(final SSLContext sslContext, final int maxIdlePerPeer) {
+        if (sslContext == null) {
+            throw new IllegalArgumentException("sslContext cannot be null");
+        }
+        if (maxIdlePerPeer < 1) {
+            throw new IllegalArgumentException(
+                    "maxIdlePerPeer must be positive: " + maxIdlePerPeer);
+        }
+        this.sslContext = sslContext;
+        this.maxIdlePerPeer = maxIdlePerPeer;
+    }
+
+    /**
+     * @return an engine without peer information, typically for server
+     *  connections.
+     */
+    public SSLEngine acquire() {
+        return acquire(null, -1);
+    }
+
+    /**
+     * @return an engine for the specified peer, reused if possible.
+     */
+    public SSLEngine acquire(final String peerHost, final int peerPort) {
+        final String key = key(peerHost, peerPort);
+        final Queue<SSLEngine> queue = idleEngines.get(key);
+        if (queue != null) {
+            final SSLEngine engine = queue.poll();
+            if (queue.isEmpty()) {
+                idleEngines.remove(key, queue);
+            }
+            if (engine != null) {
+                return engine;
+            }
+        }
+        return (peerHost == null && peerPort == -1)
+                ? sslContext.createSSLEngine()
+                : sslContext.createSSLEngine(peerHost, peerPort);
+    }
+
+    /**
+     * Resets the specified closed engine and keeps it for reuse.  The
+     * negotiators registered for the engine with {@link NegotiationSupport}
+     * are removed.  The engine must not be used by the caller afterwards.
+     *
+     * @return <code>true</code> if the engine has been pooled, otherwise
+     *  <code>false</code>, if the engine isn't {@link Resettable}, hasn't
+     *  been closed, or the pool is full.
+     */
+    public boolean release(final SSLEngine engine) {
+        if (!(engine instanceof Resettable)) {
+            return false;
+        }
+
+        try {
+            ((Resettable) engine).reset();
+        } catch (IllegalStateException e) {
+            return false;
+        }
+
+        NegotiationSupport.removeServerNegotiator(engine);
+        NegotiationSupport.removeClientNegotiator(engine);
+        NegotiationSupport.removeAlpnServerNegotiator(engine);
+        NegotiationSupport.removeAlpnClientNegotiator(engine);
+
+        final String key = key(engine.getPeerHost(), engine.getPeerPort());
+        for (;;) {
+            Queue<SSLEngine> queue = idleEngines.get(key);
+            if (queue == null) {
+                final Queue<SSLEngine> newQueue =
+                        new ArrayBlockingQueue<SSLEngine>(maxIdlePerPeer);
+                queue = idleEngines.putIfAbsent(key, newQueue);
+                if (queue == null) {
+                    queue = newQueue;
+                }
+            }
+            if (!queue.offer(engine)) {
+                return false;
+            }
+            // acquire() may have dropped the queue in the meantime; if so,
+            // take the engine back out of it and try again, unless it has
+            // been acquired already
+            if (idleEngines.get(key) == queue || !queue.remove(engine)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Drops all idle engines.
+     */
+    public void clear() {
+        idleEngines.clear();
+    }
+
+    private static String key(final String peerHost, final int peerPort) {
+        return peerHost + ':' + peerPort;
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package org.glassfish.grizzly.npn;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * <p>
+ *
+ * A cache of server sessions replacing the one of an
+ * {@code SSLSessionContext}, see {@link SessionCacheSupport}.  Server
+ * handshakes look up the session a client asks to resume by its id, and
+ * store each new resumable session once its handshake has completed.
+ *
+ * <p>
+ *
+ * Implementations must be thread safe, and should not hand out sessions
+ * which have been invalidated or have timed out.
+ *
+ * <p>
+ *
+ * Of the settings of the replaced {@code SSLSessionContext}, the session
+ * timeout still applies: sessions the cache returns which are older than
+ * it aren't resumed, and are removed from the cache.  Sessions also still
+ * return the context from {@code getSessionContext()}.  The context's
+ * session cache size doesn't apply, the cache has to bound itself, and
+ * the context's {@code getIds()} and {@code getSession(byte[])} don't
+ * see the sessions of the cache.
+ *
+ * <p>
+ */
+public interface ServerSessionCache {
+
+    /**
+     * @return the session with the specified id, or <code>null</code>.
+     */
+    SSLSession get(byte[] sessionId);
+
+    /**
+     * Stores the specified session under its id.
+     */
+    void put(SSLSession session);
+
+    /**
+     * Drops the session with the specified id, if any.
+     */
+    void remove(byte[] sessionId);
+
+}
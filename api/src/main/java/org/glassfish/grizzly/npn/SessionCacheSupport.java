@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package org.glassfish.grizzly.npn;
+
+import javax.net.ssl.SSLSessionContext;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Utility class to register, obtain, and/or remove the
+ * {@link ServerSessionCache} used instead of the cache of a server
+ * {@code SSLSessionContext}, as returned by
+ * {@code SSLContext.getServerSessionContext()}, and the
+ * {@link ExternalSessionStore} backing it.
+ */
+public class SessionCacheSupport {
+
+    private static final ConcurrentHashMap<SSLSessionContext, ServerSessionCache> serverSessionCaches =
+            new ConcurrentHashMap<SSLSessionContext, ServerSessionCache>(4);
+    private static final ConcurrentHashMap<SSLSessionContext, ExternalSessionStore> externalSessionStores =
+            new ConcurrentHashMap<SSLSessionContext, ExternalSessionStore>(4);
+
+    /**
+     * Use the specified {@link ServerSessionCache} for server handshakes
+     * of the {@code SSLContext} owning the specified session context.
+     */
+    public static void setServerSessionCache(final SSLSessionContext context,
+                                             final ServerSessionCache cache) {
+        serverSessionCaches.put(context, cache);
+    }
+
+    /**
+     * Disassociate the {@link ServerSessionCache} associated with the
+     * specified {@code SSLSessionContext}.
+     */
+    public static ServerSessionCache removeServerSessionCache(final SSLSessionContext context) {
+        return serverSessionCaches.remove(context);
+    }
+
+    /**
+     * @return the {@link ServerSessionCache} associated with the specified
+     * {@code SSLSessionContext}, or <code>null</code>.
+     */
+    public static ServerSessionCache getServerSessionCache(final SSLSessionContext context) {
+        return serverSessionCaches.isEmpty() ? null : serverSessionCaches.get(context);
+    }
+
+    /**
+     * Share the sessions of the {@code SSLContext} owning the specified
+     * session context through the specified {@link ExternalSessionStore}.
+     */
+    public static void setExternalSessionStore(final SSLSessionContext context,
+                                               final ExternalSessionStore store) {
+        externalSessionStores.put(context, store);
+    }
+
+    /**
+     * Disassociate the {@link ExternalSessionStore} associated with the
+     * specified {@code SSLSessionContext}.
+     */
+    public static ExternalSessionStore removeExternalSessionStore(final SSLSessionContext context) {
+        return externalSessionStores.remove(context);
+    }
+
+    /**
+     * @return the {@link ExternalSessionStore} associated with the
+     * specified {@code SSLSessionContext}, or <code>null</code>.
+     */
+    public static ExternalSessionStore getExternalSessionStore(final SSLSessionContext context) {
+        return externalSessionStores.isEmpty() ? null : externalSessionStores.get(context);
+    }
+
+    /**
+     * @return <code>true</code> if the specified {@link ExternalSessionStore}
+     * is associated with any {@code SSLSessionContext}.  The threads storing
+     * sessions into a store stop once it isn't anymore.
+     */
+    public static boolean isExternalSessionStoreRegistered(final ExternalSessionStore store) {
+        return externalSessionStores.containsValue(store);
+    }
+
+}
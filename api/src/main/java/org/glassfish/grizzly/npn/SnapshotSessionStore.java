@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package org.glassfish.grizzly.npn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *
+ * An {@link InMemorySessionStore} which can be saved to, and loaded
+ * from, a file, so that a restarted server resumes the
+ * sessions of the clients reconnecting to it rather than making full
+ * handshakes with all of them at once.  Register it with
+ * {@link SessionCacheSupport#setExternalSessionStore} after loading it.
+ *
+ * <p>
+ *
+ * Sessions are stored the way they are put into session tickets,
+ * encrypted with the session ticket keys.  Only a key file configured
+ * through the {@code org.glassfish.grizzly.npn.sessionTicketKeyFile}
+ * property outlives a restart, without it the saved sessions can't be
+ * decrypted anymore.
+ *
+ * <p>
+ *
+ * The file is read and written through plain channel I/O rather than
+ * mapped, as a mapping would keep the file open until garbage collected,
+ * and prevent it from being replaced on some platforms.
+ *
+ * <p>
+ *
+ * The negotiated application protocol isn't part of the state, as
+ * ALPN runs again on each handshake, including resumptions.
+ *
+ * <p>
+ */
+public class SnapshotSessionStore extends InMemorySessionStore {
+
+    private static final int MAGIC = 0x47534E53;    // "GSNS"
+    private static final int FORMAT = 1;
+    private static final int HEADER_LENGTH = 12;
+
+    private final File file;
+
+    /**
+     * @param file the file sessions are saved to and loaded from.
+     */
+    public SnapshotSessionStore(final File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("file cannot be null");
+        }
+        this.file = file;
+    }
+
+    /**
+     * Adds the unexpired sessions of the file, if it exists, to this
+     * store.
+     *
+     * @return the number of sessions loaded.
+     */
+    public int load() throws IOException {
+        if (!file.isFile()) {
+            return 0;
+        }
+
+        final List<Entry> loaded = new ArrayList<Entry>();
+        final long now = System.currentTimeMillis();
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Session snapshot too large: " + file);
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Truncated session snapshot: " + file);
+                }
+            }
+            buffer.flip();
+            if (buffer.remaining() < HEADER_LENGTH
+                    || buffer.getInt() != MAGIC
+                    || buffer.getInt() != FORMAT) {
+                throw new IOException("Not a session snapshot: " + file);
+            }
+            final int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                final byte[] sessionId = new byte[buffer.get() & 0xFF];
+                buffer.get(sessionId);
+                final long expirationTime = buffer.getLong();
+                final byte[] state = new byte[buffer.getInt()];
+                buffer.get(state);
+                if (expirationTime > now) {
+                    loaded.add(new Entry(sessionId, state, expirationTime));
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated session snapshot: " + file);
+        } catch (NegativeArraySizeException e) {
+            throw new IOException("Corrupt session snapshot: " + file);
+        } finally {
+            raf.close();
+        }
+
+        put(loaded);
+        return loaded.size();
+    }
+
+    /**
+     * Replaces the file with the unexpired sessions of this store.
+     *
+     * @return the number of sessions saved.
+     */
+    public synchronized int save() throws IOException {
+        final List<Entry> saved = new ArrayList<Entry>(size());
+        final long now = System.currentTimeMillis();
+        long length = HEADER_LENGTH;
+        for (Entry entry : entries()) {
+            if (entry.getExpirationTime() > now) {
+                saved.add(entry);
+                length += 1 + entry.getSessionId().length
+                        + 8 + 4 + entry.getState().length;
+            }
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Too many sessions to save: " + saved.size());
+        }
+
+        final File dir = file.getAbsoluteFile().getParentFile();
+        final File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+            try {
+                final ByteBuffer buffer = ByteBuffer.allocate((int) length);
+                buffer.putInt(MAGIC);
+                buffer.putInt(FORMAT);
+                buffer.putInt(saved.size());
+                for (Entry entry : saved) {
+                    buffer.put((byte) entry.getSessionId().length);
+                    buffer.put(entry.getSessionId());
+                    buffer.putLong(entry.getExpirationTime());
+                    buffer.putInt(entry.getState().length);
+                    buffer.put(entry.getState());
+                }
+                buffer.flip();
+                final FileChannel channel = raf.getChannel();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            } finally {
+                raf.close();
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+        return saved.size();
+    }
+
+    /**
+     * Saves this store when the JVM shuts down.
+     *
+     * @return the shutdown hook, for removing it.
+     */
+    public Thread saveOnShutdown() {
+        final Thread hook = new Thread("grizzly-npn-session-snapshot") {
+            @Override
+            public void run() {
+                try {
+                    save();
+                } catch (IOException ignored) {
+                    // nothing left to report to
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(hook);
+        return hook;
+    }
+
+    /**
+     * Saves this store periodically using the specified executor.
+     * Failures are ignored, the next run tries again.
+     *
+     * @return the future for cancelling the saves.
+     */
+    public ScheduledFuture<?> savePeriodically(final ScheduledExecutorService executor,
+                                               final long period,
+                                               final TimeUnit unit) {
+        return executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    save();
+                } catch (IOException ignored) {
+                    // try again next time
+                }
+            }
+        }, period, period, unit);
+    }
+
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package org.glassfish.grizzly.npn;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ *
+ * A {@link ServerSessionCache} for servers running many concurrent
+ * handshakes.  Sessions are spread by id over independently locked
+ * stripes, so that lookups and stores of different sessions rarely
+ * contend.
+ *
+ * <p>
+ *
+ * The cache is bounded by the approximate memory held by its sessions
+ * rather than by their number, since a session with client certificates
+ * is many times larger than one without.  Each stripe evicts its least
+ * recently used sessions once it exceeds its share of the bound.
+ * Sessions which have been invalidated or have timed out are dropped
+ * when they are looked up or evicted.
+ *
+ * <p>
+ */
+public class StripedSessionCache implements ServerSessionCache {
+
+    // rough size of a session without certificates: the session object,
+    // its master secret, cipher suite, value map and cache entry
+    private static final int SESSION_OVERHEAD = 1024;
+
+    private final Stripe[] stripes;
+    private final long maxStripeBytes;
+    private final long timeoutMillis;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache with a stripe count suited to the number of
+     * available processors.
+     *
+     * @param maxBytes the approximate number of bytes the cached sessions
+     *  may occupy.
+     * @param timeout the number of seconds a session may be resumed for
+     *  after its creation, or 0 for no limit.
+     */
+    public StripedSessionCache(final long maxBytes, final int timeout) {
+        this(maxBytes, timeout,
+                4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param maxBytes the approximate number of bytes the cached sessions
+     *  may occupy.
+     * @param timeout the number of seconds a session may be resumed for
+     *  after its creation, or 0 for no limit.
+     * @param stripes the number of stripes, rounded up to a power of two.
+     */
+    public StripedSessionCache(final long maxBytes, final int timeout,
+                               final int stripes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException(
+                    "maxBytes must be positive: " + maxBytes);
+        }
+        if (timeout < 0) {
+            throw new IllegalArgumentException(
+                    "timeout cannot be negative: " + timeout);
+        }
+        if (stripes < 1) {
+            throw new IllegalArgumentException(
+                    "stripes must be positive: " + stripes);
+        }
+        int count = Integer.highestOneBit(Math.min(stripes, 1 << 16));
+        if (count < stripes) {
+            count <<= 1;
+        }
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.maxStripeBytes = Math.max(maxBytes / count, 1);
+        this.timeoutMillis = timeout * 1000L;
+    }
+
+    @Override
+    public SSLSession get(final byte[] sessionId) {
+        final SessionKey key = new SessionKey(sessionId);
+        final Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            final Entry entry = stripe.sessions.get(key);
+            if (entry != null) {
+                if (isUsable(entry.session, System.currentTimeMillis())) {
+                    hits.incrementAndGet();
+                    return entry.session;
+                }
+                stripe.sessions.remove(key);
+                stripe.bytes -= entry.bytes;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    @Override
+    public void put(final SSLSession session) {
+        final byte[] sessionId = session.getId();
+        if (sessionId == null || sessionId.length == 0) {
+            return;
+        }
+        final SessionKey key = new SessionKey(sessionId);
+        final Entry entry = new Entry(session, estimateSize(session));
+        final Stripe stripe = stripeFor(key);
+        int evicted = 0;
+        synchronized (stripe) {
+            final Entry old = stripe.sessions.put(key, entry);
+            if (old != null) {
+                stripe.bytes -= old.bytes;
+            }
+            stripe.bytes += entry.bytes;
+
+            // the least recently used sessions come first
+            final Iterator<Entry> it = stripe.sessions.values().iterator();
+            while (stripe.bytes > maxStripeBytes && it.hasNext()) {
+                final Entry eldest = it.next();
+                if (eldest == entry) {
+                    break;
+                }
+                it.remove();
+                stripe.bytes -= eldest.bytes;
+                evicted++;
+            }
+        }
+        if (evicted != 0) {
+            evictions.addAndGet(evicted);
+        }
+    }
+
+    @Override
+    public void remove(final byte[] sessionId) {
+        final SessionKey key = new SessionKey(sessionId);
+        final Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            final Entry entry = stripe.sessions.remove(key);
+            if (entry != null) {
+                stripe.bytes -= entry.bytes;
+            }
+        }
+    }
+
+    /**
+     * Drops all sessions.  The statistics are kept.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.sessions.clear();
+                stripe.bytes = 0;
+            }
+        }
+    }
+
+    /**
+     * @return the number of lookups which found a session.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups which didn't find a usable session.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of sessions dropped to stay within the memory
+     *  bound.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of cached sessions.
+     */
+    public int getSize() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.sessions.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the approximate number of bytes held by the cached sessions.
+     */
+    public long getFootprint() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                bytes += stripe.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    private Stripe stripeFor(final SessionKey key) {
+        int h = key.hash;
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    private boolean isUsable(final SSLSession session, final long now) {
+        return session.isValid() && (timeoutMillis == 0
+                || now - session.getCreationTime() < timeoutMillis);
+    }
+
+    /*
+     * The session overhead, plus the certificates of the peer, counted
+     * twice for their encoded and parsed forms.  Local certificates are
+     * shared by all sessions and not counted.
+     */
+    private static int estimateSize(final SSLSession session) {
+        int size = SESSION_OVERHEAD + session.getId().length;
+        try {
+            for (Certificate cert : session.getPeerCertificates()) {
+                size += 2 * cert.getEncoded().length;
+            }
+        } catch (SSLPeerUnverifiedException ignored) {
+            // no certificates
+        } catch (CertificateEncodingException ignored) {
+            // can't tell
+        }
+        return size;
+    }
+
+
+    // ---------------------------------------------------------- Nested Classes
+
+
+    private static final class Stripe {
+
+        final LinkedHashMap<SessionKey, Entry> sessions =
+                new LinkedHashMap<SessionKey, Entry>(16, 0.75f, true);
+        long bytes;
+
+    } // END Stripe
+
+
+    private static final class Entry {
+
+        final SSLSession session;
+        final int bytes;
+
+        Entry(final SSLSession session, final int bytes) {
+            this.session = session;
+            this.bytes = bytes;
+        }
+
+    } // END Entry
+
+
+    private static final class SessionKey {
+
+        final byte[] id;
+        final int hash;
+
+        SessionKey(final byte[] id) {
+            this.id = id;
+            this.hash = Arrays.hashCode(id);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return (o instanceof SessionKey)
+                    && Arrays.equals(id, ((SessionKey) o).id);
+        }
+
+    } // END SessionKey
+
+}
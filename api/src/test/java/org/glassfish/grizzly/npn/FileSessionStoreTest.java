@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+
+package org.glassfish.grizzly.npn;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileSessionStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void storedSessionIsFoundByAnotherStore() throws Exception {
+        File directory = new File(folder.getRoot(), "sessions");
+        new FileSessionStore(directory).put(Collections.singletonList(
+                new ExternalSessionStore.Entry(new byte[] { 0x1f, 0x20 },
+                        new byte[] { 10, 11 },
+                        System.currentTimeMillis() + 60000)));
+
+        assertTrue(new File(directory, "1f20").isFile());
+        FileSessionStore store = new FileSessionStore(directory);
+        assertArrayEquals(new byte[] { 10, 11 },
+                store.get(new byte[] { 0x1f, 0x20 }));
+        assertNull(store.get(new byte[] { 1 }));
+    }
+
+    @Test
+    public void expiredSessionIsDeleted() throws Exception {
+        FileSessionStore store = new FileSessionStore(folder.getRoot());
+        store.put(Collections.singletonList(new ExternalSessionStore.Entry(
+                new byte[] { 1 }, new byte[] { 10 },
+                System.currentTimeMillis() - 1)));
+
+        assertNull(store.get(new byte[] { 1 }));
+        assertFalse(new File(folder.getRoot(), "01").exists());
+    }
+
+    @Test
+    public void laterStoreReplacesSession() throws Exception {
+        FileSessionStore store = new FileSessionStore(folder.getRoot());
+        long expirationTime = System.currentTimeMillis() + 60000;
+        store.put(Collections.singletonList(new ExternalSessionStore.Entry(
+                new byte[] { 1 }, new byte[] { 10 }, expirationTime)));
+        store.put(Collections.singletonList(new ExternalSessionStore.Entry(
+                new byte[] { 1 }, new byte[] { 11, 12 }, expirationTime)));
+
+        assertArrayEquals(new byte[] { 11, 12 }, store.get(new byte[] { 1 }));
+        // no temporary files are left behind
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+}
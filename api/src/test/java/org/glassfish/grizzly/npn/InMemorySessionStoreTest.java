@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+
+package org.glassfish.grizzly.npn;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class InMemorySessionStoreTest {
+
+    @Test
+    public void storedSessionIsFound() {
+        InMemorySessionStore store = new InMemorySessionStore();
+        store.put(Collections.singletonList(new ExternalSessionStore.Entry(
+                new byte[] { 1 }, new byte[] { 10, 11 },
+                System.currentTimeMillis() + 60000)));
+
+        assertArrayEquals(new byte[] { 10, 11 }, store.get(new byte[] { 1 }));
+        assertNull(store.get(new byte[] { 2 }));
+    }
+
+    @Test
+    public void expiredSessionIsDroppedOnLookup() {
+        InMemorySessionStore store = new InMemorySessionStore();
+        store.put(Collections.singletonList(new ExternalSessionStore.Entry(
+                new byte[] { 1 }, new byte[] { 10 },
+                System.currentTimeMillis() - 1)));
+
+        assertNull(store.get(new byte[] { 1 }));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void expiredSessionsAreSwept() {
+        InMemorySessionStore store = new InMemorySessionStore(3);
+        long now = System.currentTimeMillis();
+        store.put(Arrays.asList(
+                new ExternalSessionStore.Entry(new byte[] { 1 },
+                        new byte[] { 10 }, now - 1),
+                new ExternalSessionStore.Entry(new byte[] { 2 },
+                        new byte[] { 20 }, now + 60000)));
+        assertEquals(2, store.size());
+
+        store.put(Collections.singletonList(new ExternalSessionStore.Entry(
+                new byte[] { 3 }, new byte[] { 30 }, now + 60000)));
+        assertEquals(2, store.size());
+        assertNull(store.get(new byte[] { 1 }));
+    }
+
+    @Test
+    public void laterStoreReplacesSession() {
+        InMemorySessionStore store = new InMemorySessionStore();
+        long expirationTime = System.currentTimeMillis() + 60000;
+        store.put(Collections.singletonList(new ExternalSessionStore.Entry(
+                new byte[] { 1 }, new byte[] { 10 }, expirationTime)));
+        store.put(Collections.singletonList(new ExternalSessionStore.Entry(
+                new byte[] { 1 }, new byte[] { 11 }, expirationTime)));
+
+        assertArrayEquals(new byte[] { 11 }, store.get(new byte[] { 1 }));
+        assertEquals(1, store.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sweepIntervalMustBePositive() {
+        new InMemorySessionStore(0);
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+
+package org.glassfish.grizzly.npn;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+
+import javax.net.ssl.SSLEngine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SSLEnginePoolTest {
+
+    private SSLEnginePool pool;
+
+    @Before
+    public void createPool() {
+        pool = new SSLEnginePool(TestEngine.newContext(), 2);
+    }
+
+    @Test
+    public void releasedEngineIsResetAndReused() {
+        SSLEngine engine = closed(pool.acquire("example.com", 443));
+        assertTrue(pool.release(engine));
+        assertEquals(1, ((TestEngine) engine).getResets());
+
+        assertSame(engine, pool.acquire("example.com", 443));
+        assertNotSame(engine, pool.acquire("example.com", 443));
+    }
+
+    @Test
+    public void enginesArePooledPerPeer() {
+        SSLEngine engine = closed(pool.acquire("example.com", 443));
+        assertTrue(pool.release(engine));
+        assertNotSame(engine, pool.acquire("example.com", 8443));
+        assertNotSame(engine, pool.acquire());
+        assertSame(engine, pool.acquire("example.com", 443));
+    }
+
+    @Test
+    public void openEngineIsNotPooled() {
+        SSLEngine engine = pool.acquire();
+        assertFalse(pool.release(engine));
+        assertNotSame(engine, pool.acquire());
+    }
+
+    @Test
+    public void poolIsBoundedPerPeer() {
+        assertTrue(pool.release(closed(new TestEngine(null, -1))));
+        assertTrue(pool.release(closed(new TestEngine(null, -1))));
+        assertFalse(pool.release(closed(new TestEngine(null, -1))));
+    }
+
+    @Test
+    public void negotiatorsAreRemoved() {
+        SSLEngine engine = closed(pool.acquire());
+        NegotiationSupport.addNegotiator(engine, new AlpnServerNegotiator() {
+            @Override
+            public String selectProtocol(SSLEngine sslEngine,
+                    String[] clientProtocols) {
+                return null;
+            }
+        });
+        assertTrue(pool.release(engine));
+        assertNull(NegotiationSupport.getAlpnServerNegotiator(engine));
+    }
+
+    @Test
+    public void emptyQueuesAreEvicted() throws Exception {
+        for (int port = 0; port < 100; port++) {
+            SSLEngine engine = closed(pool.acquire("example.com", port));
+            assertTrue(pool.release(engine));
+            assertSame(engine, pool.acquire("example.com", port));
+        }
+        assertTrue(idleEngines().isEmpty());
+    }
+
+    private static SSLEngine closed(SSLEngine engine) {
+        ((TestEngine) engine).closeInbound();
+        engine.closeOutbound();
+        return engine;
+    }
+
+    private Map<?, ?> idleEngines() throws Exception {
+        Field field = SSLEnginePool.class.getDeclaredField("idleEngines");
+        field.setAccessible(true);
+        return (Map<?, ?>) field.get(pool);
+    }
+
+}
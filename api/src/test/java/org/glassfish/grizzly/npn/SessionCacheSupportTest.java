@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+
+package org.glassfish.grizzly.npn;
+
+import java.util.Collections;
+import java.util.Enumeration;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SessionCacheSupportTest {
+
+    private final SSLSessionContext context = newSessionContext();
+
+    @After
+    public void unregister() {
+        SessionCacheSupport.removeServerSessionCache(context);
+        SessionCacheSupport.removeExternalSessionStore(context);
+    }
+
+    @Test
+    public void serverSessionCacheIsPerContext() {
+        ServerSessionCache cache = new StripedSessionCache(1 << 20, 0);
+        SessionCacheSupport.setServerSessionCache(context, cache);
+
+        assertSame(cache, SessionCacheSupport.getServerSessionCache(context));
+        assertNull(SessionCacheSupport.getServerSessionCache(
+                newSessionContext()));
+        assertSame(cache, SessionCacheSupport.removeServerSessionCache(context));
+        assertNull(SessionCacheSupport.getServerSessionCache(context));
+    }
+
+    @Test
+    public void externalSessionStoreIsRegisteredUntilRemoved() {
+        ExternalSessionStore store = new InMemorySessionStore();
+        assertFalse(SessionCacheSupport.isExternalSessionStoreRegistered(store));
+
+        SessionCacheSupport.setExternalSessionStore(context, store);
+        assertSame(store, SessionCacheSupport.getExternalSessionStore(context));
+        assertTrue(SessionCacheSupport.isExternalSessionStoreRegistered(store));
+
+        assertSame(store, SessionCacheSupport.removeExternalSessionStore(context));
+        assertNull(SessionCacheSupport.getExternalSessionStore(context));
+        assertFalse(SessionCacheSupport.isExternalSessionStoreRegistered(store));
+    }
+
+    private static SSLSessionContext newSessionContext() {
+        return new SSLSessionContext() {
+            @Override
+            public SSLSession getSession(byte[] sessionId) {
+                return null;
+            }
+
+            @Override
+            public Enumeration<byte[]> getIds() {
+                return Collections.enumeration(
+                        Collections.<byte[]>emptyList());
+            }
+
+            @Override
+            public void setSessionTimeout(int seconds) {
+            }
+
+            @Override
+            public int getSessionTimeout() {
+                return 0;
+            }
+
+            @Override
+            public void setSessionCacheSize(int size) {
+            }
+
+            @Override
+            public int getSessionCacheSize() {
+                return 0;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+
+package org.glassfish.grizzly.npn;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class SnapshotSessionStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void savedSessionsAreLoaded() throws Exception {
+        File file = new File(folder.getRoot(), "sessions");
+        SnapshotSessionStore saved = new SnapshotSessionStore(file);
+        long expirationTime = System.currentTimeMillis() + 60000;
+        saved.put(Arrays.asList(
+                new ExternalSessionStore.Entry(new byte[] { 1 },
+                        new byte[] { 10, 11 }, expirationTime),
+                new ExternalSessionStore.Entry(new byte[] { 2 },
+                        new byte[] { 20 }, expirationTime)));
+        assertEquals(2, saved.save());
+
+        SnapshotSessionStore loaded = new SnapshotSessionStore(file);
+        assertEquals(2, loaded.load());
+        assertArrayEquals(new byte[] { 10, 11 }, loaded.get(new byte[] { 1 }));
+        assertArrayEquals(new byte[] { 20 }, loaded.get(new byte[] { 2 }));
+    }
+
+    @Test
+    public void saveReplacesTheFile() throws Exception {
+        File file = new File(folder.getRoot(), "sessions");
+        SnapshotSessionStore store = new SnapshotSessionStore(file);
+        long expirationTime = System.currentTimeMillis() + 60000;
+        store.put(Arrays.asList(new ExternalSessionStore.Entry(
+                new byte[] { 1 }, new byte[] { 10 }, expirationTime)));
+        store.save();
+        store.put(Arrays.asList(new ExternalSessionStore.Entry(
+                new byte[] { 2 }, new byte[] { 20 }, expirationTime)));
+        assertEquals(2, store.save());
+
+        assertEquals(2, new SnapshotSessionStore(file).load());
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void expiredSessionsAreSkipped() throws Exception {
+        File file = new File(folder.getRoot(), "sessions");
+        SnapshotSessionStore saved = new SnapshotSessionStore(file);
+        saved.put(Arrays.asList(new ExternalSessionStore.Entry(
+                new byte[] { 1 }, new byte[] { 10 },
+                System.currentTimeMillis() + 200)));
+        assertEquals(1, saved.save());
+        Thread.sleep(300);
+
+        SnapshotSessionStore loaded = new SnapshotSessionStore(file);
+        assertEquals(0, loaded.load());
+        assertNull(loaded.get(new byte[] { 1 }));
+    }
+
+    @Test
+    public void missingFileLoadsNothing() throws Exception {
+        assertEquals(0, new SnapshotSessionStore(
+                new File(folder.getRoot(), "missing")).load());
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws Exception {
+        File file = new File(folder.getRoot(), "sessions");
+        SnapshotSessionStore saved = new SnapshotSessionStore(file);
+        saved.put(Arrays.asList(new ExternalSessionStore.Entry(
+                new byte[] { 1 }, new byte[] { 10, 11, 12 },
+                System.currentTimeMillis() + 60000)));
+        saved.save();
+        byte[] content = Files.readAllBytes(file.toPath());
+        write(file, Arrays.copyOf(content, content.length - 2));
+
+        try {
+            new SnapshotSessionStore(file).load();
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void otherFileIsRejected() throws Exception {
+        File file = new File(folder.getRoot(), "sessions");
+        write(file, "not a snapshot".getBytes("US-ASCII"));
+        try {
+            new SnapshotSessionStore(file).load();
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+
+package org.glassfish.grizzly.npn;
+
+import java.security.Principal;
+import java.security.cert.Certificate;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StripedSessionCacheTest {
+
+    @Test
+    public void storedSessionIsFound() {
+        StripedSessionCache cache = new StripedSessionCache(1 << 20, 0);
+        TestSession session = new TestSession(1);
+        cache.put(session);
+
+        assertSame(session, cache.get(new byte[] { 1 }));
+        assertNull(cache.get(new byte[] { 2 }));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void sessionsWithoutIdAreNotStored() {
+        StripedSessionCache cache = new StripedSessionCache(1 << 20, 0);
+        cache.put(new TestSession());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void invalidatedSessionIsDropped() {
+        StripedSessionCache cache = new StripedSessionCache(1 << 20, 0);
+        TestSession session = new TestSession(1);
+        cache.put(session);
+        session.invalidate();
+
+        assertNull(cache.get(new byte[] { 1 }));
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getFootprint());
+    }
+
+    @Test
+    public void timedOutSessionIsDropped() {
+        StripedSessionCache cache = new StripedSessionCache(1 << 20, 1);
+        TestSession session = new TestSession(1);
+        session.creationTime -= 2000;
+        cache.put(session);
+
+        assertNull(cache.get(new byte[] { 1 }));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void leastRecentlyUsedSessionIsEvicted() {
+        // room for two sessions in a single stripe
+        StripedSessionCache cache = new StripedSessionCache(2500, 0, 1);
+        TestSession first = new TestSession(1);
+        TestSession second = new TestSession(2);
+        cache.put(first);
+        cache.put(second);
+        assertSame(first, cache.get(new byte[] { 1 }));
+
+        cache.put(new TestSession(3));
+        assertEquals(1, cache.getEvictions());
+        assertSame(first, cache.get(new byte[] { 1 }));
+        assertNull(cache.get(new byte[] { 2 }));
+        assertEquals(2, cache.getSize());
+        assertTrue(cache.getFootprint() <= 2500);
+    }
+
+    @Test
+    public void replacedSessionIsCountedOnce() {
+        StripedSessionCache cache = new StripedSessionCache(1 << 20, 0);
+        cache.put(new TestSession(1));
+        long footprint = cache.getFootprint();
+        cache.put(new TestSession(1));
+
+        assertEquals(1, cache.getSize());
+        assertEquals(footprint, cache.getFootprint());
+    }
+
+    @Test
+    public void removeAndClearDropSessions() {
+        StripedSessionCache cache = new StripedSessionCache(1 << 20, 0);
+        cache.put(new TestSession(1));
+        cache.put(new TestSession(2));
+        cache.remove(new byte[] { 1 });
+        assertNull(cache.get(new byte[] { 1 }));
+        assertEquals(1, cache.getSize());
+
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getFootprint());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void boundMustBePositive() {
+        new StripedSessionCache(0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void timeoutCannotBeNegative() {
+        new StripedSessionCache(1 << 20, -1);
+    }
+
+
+    // ---------------------------------------------------------- Nested Classes
+
+
+    /**
+     * A session without peer certificates, valid until invalidated.
+     */
+    static final class TestSession implements SSLSession {
+
+        private final byte[] id;
+        long creationTime = System.currentTimeMillis();
+        private boolean valid = true;
+
+        TestSession(int... id) {
+            this.id = new byte[id.length];
+            for (int i = 0; i < id.length; i++) {
+                this.id[i] = (byte) id[i];
+            }
+        }
+
+        @Override
+        public byte[] getId() {
+            return id;
+        }
+
+        @Override
+        public SSLSessionContext getSessionContext() {
+            return null;
+        }
+
+        @Override
+        public long getCreationTime() {
+            return creationTime;
+        }
+
+        @Override
+        public long getLastAccessedTime() {
+            return creationTime;
+        }
+
+        @Override
+        public void invalidate() {
+            valid = false;
+        }
+
+        @Override
+        public boolean isValid() {
+            return valid;
+        }
+
+        @Override
+        public void putValue(String name, Object value) {
+        }
+
+        @Override
+        public Object getValue(String name) {
+            return null;
+        }
+
+        @Override
+        public void removeValue(String name) {
+        }
+
+        @Override
+        public String[] getValueNames() {
+            return new String[0];
+        }
+
+        @Override
+        public Certificate[] getPeerCertificates()
+                throws SSLPeerUnverifiedException {
+            throw new SSLPeerUnverifiedException("no certificates");
+        }
+
+        @Override
+        public Certificate[] getLocalCertificates() {
+            return null;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public javax.security.cert.X509Certificate[] getPeerCertificateChain()
+                throws SSLPeerUnverifiedException {
+            throw new SSLPeerUnverifiedException("no certificates");
+        }
+
+        @Override
+        public Principal getPeerPrincipal() throws SSLPeerUnverifiedException {
+            throw new SSLPeerUnverifiedException("no certificates");
+        }
+
+        @Override
+        public Principal getLocalPrincipal() {
+            return null;
+        }
+
+        @Override
+        public String getCipherSuite() {
+            return "SSL_NULL_WITH_NULL_NULL";
+        }
+
+        @Override
+        public String getProtocol() {
+            return "NONE";
+        }
+
+        @Override
+        public String getPeerHost() {
+            return null;
+        }
+
+        @Override
+        public int getPeerPort() {
+            return -1;
+        }
+
+        @Override
+        public int getPacketBufferSize() {
+            return 16709;
+        }
+
+        @Override
+        public int getApplicationBufferSize() {
+            return 16384;
+        }
+
+    } // END TestSession
+
+}
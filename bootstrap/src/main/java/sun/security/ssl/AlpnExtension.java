@@ -16,7 +16,6 @@
 
 package sun.security.ssl;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -139,18 +138,34 @@ final class AlpnExtension extends HelloExtension {
                     if (extension.protocols.length == 0) {
                         extension.outData = EMPTY_DATA;
                     } else {
-                        ByteArrayOutputStream out = new ByteArrayOutputStream();
-                        for (String protocol : extension.protocols) {
-                            if (protocol.length() > 0 && protocol.length() < 256) {
-                                out.write((byte) protocol.length());
-                                out.write(protocol.getBytes("UTF-8"));
+                        // Encode the protocols first so that outData can be
+                        // allocated with its exact size.
+                        final byte[][] encoded =
+                                new byte[extension.protocols.length][];
+                        int size = 0;
+                        for (int i = 0; i < encoded.length; i++) {
+                            final byte[] protocol =
+                                    extension.protocols[i].getBytes("UTF-8");
+                            if (protocol.length > 0 && protocol.length < 256) {
+                                encoded[i] = protocol;
+                                size += protocol.length + 1;
                             } else {
                                 // TODO add logging for the case where the
                                 // protocol is an empty string or greater than 2^8-1.
                             }
                         }
                         // TODO len of outData shouldn't be more than 2^16-1
-                        extension.outData = out.toByteArray();
+                        final byte[] outBytes = new byte[size];
+                        int pos = 0;
+                        for (byte[] protocol : encoded) {
+                            if (protocol != null) {
+                                outBytes[pos++] = (byte) protocol.length;
+                                System.arraycopy(protocol, 0,
+                                        outBytes, pos, protocol.length);
+                                pos += protocol.length;
+                            }
+                        }
+                        extension.outData = outBytes;
                     }
                 }
             }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+
+package sun.security.ssl;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * A concurrent map holding at most a given number of entries, shared by
+ * the handshake caches.  Once full, each new entry evicts the oldest one,
+ * so that peers or engines producing ever new keys can't grow a cache,
+ * and don't flush the entries everybody else keeps using either.
+ *
+ * Lookups don't lock.  Eviction is in insertion order, and only
+ * approximately so under concurrent updates of the same key.
+ *
+ * Keys refer to the application's KeyManagers, TrustManagers and
+ * algorithm constraints weakly, see weak() and sameReferent(), so that
+ * the static caches don't keep them, and their class loaders, reachable.
+ */
+final class BoundedCache<K, V> {
+
+    private final int maxEntries;
+    private final ConcurrentHashMap<K, Node<K, V>> entries;
+    // the nodes in insertion order, for eviction
+    private final ConcurrentLinkedQueue<Node<K, V>> order =
+            new ConcurrentLinkedQueue<Node<K, V>>();
+
+    BoundedCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new ConcurrentHashMap<K, Node<K, V>>(16);
+    }
+
+    V get(K key) {
+        Node<K, V> node = entries.get(key);
+        return (node != null) ? node.value : null;
+    }
+
+    /*
+     * Adds or replaces the entry of the key.
+     */
+    void put(K key, V value) {
+        Node<K, V> old = entries.remove(key);
+        if (old != null) {
+            order.remove(old);
+        }
+        // the map keeps the node's own key, see added()
+        Node<K, V> node = new Node<K, V>(key, value);
+        if (entries.putIfAbsent(key, node) == null) {
+            added(node);
+        }
+    }
+
+    /*
+     * Adds the entry unless the key has one, returning the existing
+     * value or null.
+     */
+    V putIfAbsent(K key, V value) {
+        Node<K, V> node = new Node<K, V>(key, value);
+        Node<K, V> existing = entries.putIfAbsent(key, node);
+        if (existing != null) {
+            return existing.value;
+        }
+        added(node);
+        return null;
+    }
+
+    /*
+     * Removes the entry of the key if it has the value.
+     */
+    void remove(K key, V value) {
+        Node<K, V> node = entries.get(key);
+        if ((node != null) && node.value.equals(value) &&
+                entries.remove(key, node)) {
+            order.remove(node);
+        }
+    }
+
+    /*
+     * Returns a weak reference to the object, or null if it is null.
+     */
+    static <T> WeakReference<T> weak(T referent) {
+        return (referent != null) ? new WeakReference<T>(referent) : null;
+    }
+
+    /*
+     * Returns whether both references are null or refer to the same
+     * object.  A cleared reference matches nothing, so the entries of a
+     * collected object are never hit again and age out.
+     */
+    static boolean sameReferent(WeakReference<?> ref,
+            WeakReference<?> other) {
+        if ((ref == null) || (other == null)) {
+            return ref == other;
+        }
+        Object referent = ref.get();
+        return (referent != null) && (referent == other.get());
+    }
+
+    /*
+     * Evicts the eldest entries while there are too many.  Nodes are
+     * removed by identity, along with the very key instance the map
+     * holds, since keys whose weak referents were cleared don't equal
+     * anything anymore, not even a copy of themselves.
+     */
+    private void added(Node<K, V> node) {
+        order.add(node);
+        while (entries.size() > maxEntries) {
+            Node<K, V> eldest = order.poll();
+            if (eldest == null) {
+                break;
+            }
+            entries.remove(eldest.key, eldest);
+        }
+    }
+
+    private static final class Node<K, V> {
+
+        final K key;
+        final V value;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+    } // END Node
+
+} // END BoundedCache
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package sun.security.ssl;
+
+import java.security.AlgorithmConstraints;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static sun.security.ssl.CipherSuite.KeyExchange.K_DH_ANON;
+import static sun.security.ssl.CipherSuite.KeyExchange.K_ECDH_ANON;
+
+/*
+ * Cache of the cipher suites a server handshake may choose from.  Without
+ * it, every handshake checks the availability of each suite shared with
+ * the client, its protocol versions and the legacy algorithm constraints,
+ * and allocates the lists of candidates.  Yet most traffic comes from a
+ * small number of client stacks, each sending the same list of suites.
+ *
+ * A selection is keyed by the suites of the preferred list which are in
+ * the proposed one, in order, the protocol version and whether anonymous
+ * suites are excluded, which are all the candidates depend on.  Suites
+ * only one side knows, such as GREASE values, don't make a key differ.
+ * A selection holds the negotiable suites in the order they are to be
+ * tried: the standard ones followed by the legacy ones.  Whether a
+ * candidate can actually be used, which depends on the server's
+ * credentials and the peer's signature algorithms and curves, is still
+ * decided by each handshake.  Up to MAX_SELECTIONS selections are kept.
+ *
+ * Enabled by org.glassfish.grizzly.npn.cipherSuiteCache.
+ */
+final class CipherSuiteSelections {
+
+    static final boolean enabled = Debug.getBooleanProperty(
+            "org.glassfish.grizzly.npn.cipherSuiteCache", false);
+
+    private static final int MAX_SELECTIONS = 256;
+
+    private static final BoundedCache<Key, Selection> selections =
+            new BoundedCache<Key, Selection>(MAX_SELECTIONS);
+
+    private CipherSuiteSelections() {
+    }
+
+    static Selection get(CipherSuiteList prefered, CipherSuiteList proposed,
+            ProtocolVersion protocolVersion, boolean excludeAnonymous,
+            AlgorithmConstraints legacyConstraints) {
+        Key key = new Key(sharedIds(prefered, proposed), protocolVersion.v,
+                excludeAnonymous);
+        Selection selection = selections.get(key);
+        if (selection == null) {
+            selection = select(prefered, proposed, protocolVersion,
+                    excludeAnonymous, legacyConstraints);
+            selections.put(key, selection);
+        }
+        return selection;
+    }
+
+    private static Selection select(CipherSuiteList prefered,
+            CipherSuiteList proposed, ProtocolVersion protocolVersion,
+            boolean excludeAnonymous, AlgorithmConstraints legacyConstraints) {
+        List<CipherSuite> standardSuites = new ArrayList<>();
+        List<CipherSuite> legacySuites = new ArrayList<>();
+        for (CipherSuite suite : prefered.collection()) {
+            if (Handshaker.isNegotiable(proposed, suite) == false) {
+                continue;
+            }
+
+            if (excludeAnonymous) {
+                if ((suite.keyExchange == K_DH_ANON) ||
+                        (suite.keyExchange == K_ECDH_ANON)) {
+                    continue;
+                }
+            }
+
+            // checked by ServerHandshaker.trySetCipherSuite() as well
+            if ((protocolVersion.v >= suite.obsoleted) ||
+                    (protocolVersion.v < suite.supported)) {
+                continue;
+            }
+
+            if (!legacyConstraints.permits(null, suite.name, null)) {
+                legacySuites.add(suite);
+            } else {
+                standardSuites.add(suite);
+            }
+        }
+
+        int standardCount = standardSuites.size();
+        standardSuites.addAll(legacySuites);
+        return new Selection(standardSuites.toArray(
+                new CipherSuite[standardSuites.size()]), standardCount);
+    }
+
+    /*
+     * Returns the ids of the preferred suites which are proposed as well,
+     * in order.
+     */
+    private static int[] sharedIds(CipherSuiteList prefered,
+            CipherSuiteList proposed) {
+        int[] ids = new int[prefered.size()];
+        int count = 0;
+        for (CipherSuite suite : prefered.collection()) {
+            if (proposed.contains(suite)) {
+                ids[count++] = suite.id;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    static final class Selection {
+
+        // the suites to try, in order
+        final CipherSuite[] candidates;
+
+        // the number of leading candidates which aren't legacy suites
+        final int standardCount;
+
+        Selection(CipherSuite[] candidates, int standardCount) {
+            this.candidates = candidates;
+            this.standardCount = standardCount;
+        }
+
+    } // END Selection
+
+    private static final class Key {
+
+        private final int[] shared;
+        private final int protocolVersion;
+        private final boolean excludeAnonymous;
+        private final int hash;
+
+        Key(int[] shared, int protocolVersion, boolean excludeAnonymous) {
+            this.shared = shared;
+            this.protocolVersion = protocolVersion;
+            this.excludeAnonymous = excludeAnonymous;
+            this.hash = 31 * (31 * Arrays.hashCode(shared) +
+                    protocolVersion) + (excludeAnonymous ? 1 : 0);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)o;
+            return (protocolVersion == other.protocolVersion) &&
+                    (excludeAnonymous == other.excludeAnonymous) &&
+                    Arrays.equals(shared, other.shared);
+        }
+
+    } // END Key
+
+} // END CipherSuiteSelections
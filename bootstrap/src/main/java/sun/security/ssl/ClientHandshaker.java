@@ -40,6 +40,7 @@ import javax.security.auth.Subject;
 import org.glassfish.grizzly.npn.AlpnClientNegotiator;
 import org.glassfish.grizzly.npn.ClientSideNegotiator;
 import org.glassfish.grizzly.npn.NegotiationSupport;
+import sun.security.action.GetIntegerAction;
 import sun.security.ssl.HandshakeMessage.*;
 import static sun.security.ssl.CipherSuite.KeyExchange.*;
 
@@ -138,6 +139,33 @@ final class ClientHandshaker extends Handshaker {
     private List<SNIServerName> requestedServerNames =
             Collections.<SNIServerName>emptyList();
 
+    // BEGIN GRIZZLY NPN
+    // The max_fragment_length (RFC 6066) to ask servers for: one of
+    // 512, 1024, 2048 or 4096, anything else disables the extension.
+    private final static int maxFragmentLength =
+            AccessController.doPrivileged(new GetIntegerAction(
+                    "org.glassfish.grizzly.npn.maxFragmentLength", 0));
+
+    // the max_fragment_length sent in the ClientHello, or 0
+    private int requestedMaxFragmentLength;
+
+    // whether the server agreed to the max_fragment_length, so that the
+    // handshake messages have to be flushed one by one
+    private boolean fragmentLimited;
+
+    // Whether to ask servers for session tickets (RFC 5077), and resume
+    // sessions with them.
+    private final static boolean useSessionTickets =
+            Debug.getBooleanProperty(
+                    "org.glassfish.grizzly.npn.sessionTickets", false);
+
+    // whether the ClientHello carried a SessionTicket extension
+    private boolean requestedSessionTicket;
+
+    // whether the server promised a NewSessionTicket message
+    private boolean expectingSessionTicket;
+    // END GRIZZLY NPN
+
     private boolean serverNamesAccepted = false;
 
     /*
@@ -185,6 +213,20 @@ final class ClientHandshaker extends Handshaker {
      */
     @Override
     void processMessage(byte type, int messageLen) throws IOException {
+        // BEGIN GRIZZLY NPN
+        // NewSessionTicket comes right before the server's
+        // ChangeCipherSpec, whatever the state of the handshake.
+        if (type == HandshakeMessage.ht_new_session_ticket) {
+            if (!expectingSessionTicket || receivedChangeCipherSpec()) {
+                throw new SSLProtocolException(
+                        "Handshake message sequence violation, " + type);
+            }
+            expectingSessionTicket = false;
+            this.serverSessionTicket(new NewSessionTicket(input));
+            return;
+        }
+        // END GRIZZLY NPN
+
         if (state >= type
                 && (type != HandshakeMessage.ht_hello_request)) {
             throw new SSLProtocolException(
@@ -691,6 +733,44 @@ final class ClientHandshaker extends Handshaker {
             }
         }
 
+        // BEGIN GRIZZLY NPN
+        // check the "max_fragment_length" extension
+        MaxFragmentLengthExtension maxFragmentLengthExt =
+                (MaxFragmentLengthExtension)mesg.extensions.get(
+                        ExtensionType.EXT_MAX_FRAGMENT_LENGTH);
+        if ((maxFragmentLengthExt != null) &&
+                (maxFragmentLengthExt.getLength() != requestedMaxFragmentLength)) {
+            fatalSE(Alerts.alert_illegal_parameter,
+                    "Server sent an improper max_fragment_length extension");
+        }
+
+        // check the "SessionTicket" extension
+        SessionTicketExtension ticketExt =
+                (SessionTicketExtension)mesg.extensions.get(
+                        ExtensionType.EXT_SESSION_TICKET);
+        if (ticketExt != null) {
+            if (!requestedSessionTicket || !ticketExt.isEmpty()) {
+                fatalSE(Alerts.alert_unsupported_extension,
+                        "Server sent an improper SessionTicket extension");
+            }
+            expectingSessionTicket = true;
+        }
+
+        // The length negotiated for a session applies to its resumptions
+        // too, whether or not the server echoes it again.
+        fragmentLimited = (maxFragmentLengthExt != null);
+        if (engine != null) {
+            if (maxFragmentLengthExt != null) {
+                engine.setMaxFragmentLength(requestedMaxFragmentLength);
+            } else if (resumingSession && (session != null)) {
+                engine.setMaxFragmentLength(
+                        MaxFragmentLengthExtension.getSessionLength(session));
+            } else {
+                engine.setMaxFragmentLength(0);
+            }
+        }
+        // END GRIZZLY NPN
+
         if (resumingSession && session != null) {
             setHandshakeSessionSE(session);
             // Reserve the handshake state if this is a session-resumption
@@ -715,6 +795,8 @@ final class ClientHandshaker extends Handshaker {
                     // Include NPN as a supported extension.
                     && (type != ExtensionType.EXT_NEXT_PROTOCOL_NEGOTIATION)
                     && (type != ExtensionType.EXT_APPLICATION_LEVEL_PROTOCOL_NEGOTIATION)
+                    && (type != ExtensionType.EXT_MAX_FRAGMENT_LENGTH)
+                    && (type != ExtensionType.EXT_SESSION_TICKET)
                     // END GRIZZLY NPN
                     && (type != ExtensionType.EXT_EXTENDED_MASTER_SECRET)){
                 fatalSE(Alerts.alert_unsupported_extension,
@@ -752,6 +834,12 @@ final class ClientHandshaker extends Handshaker {
                 mesg.sessionId, getHostSE(), getPortSE(),
                 (extendedMasterSecretExt != null));
         session.setRequestedServerNames(requestedServerNames);
+        // BEGIN GRIZZLY NPN
+        if (maxFragmentLengthExt != null) {
+            MaxFragmentLengthExtension.setSessionLength(session,
+                    requestedMaxFragmentLength);
+        }
+        // END GRIZZLY NPN
         setHandshakeSessionSE(session);
         if (debug != null && Debug.isOn("handshake")) {
             System.out.println("** " + cipherSuite);
@@ -810,7 +898,9 @@ final class ClientHandshaker extends Handshaker {
             mesg.print(System.out);
         }
         ECPublicKey key = mesg.getPublicKey();
-        ecdh = new ECDHCrypt(key.getParams(), sslContext.getSecureRandom());
+        // BEGIN GRIZZLY NPN
+        ecdh = newECDHCrypt(key.getParams());
+        // END GRIZZLY NPN
         ephemeralServerKey = key;
 
         // check constraints of EC PublicKey
@@ -822,6 +912,37 @@ final class ClientHandshaker extends Handshaker {
         }
     }
 
+    // BEGIN GRIZZLY NPN
+    /*
+     * Returns a fresh ECDH key pair on the curve of the server's key,
+     * pre-generated if ClientHello templates are enabled and the curve
+     * is a named one.
+     */
+    private ECDHCrypt newECDHCrypt(ECParameterSpec params) {
+        if (ClientHelloTemplates.enabled) {
+            int curveId = EllipticCurvesExtension.getCurveIndex(params);
+            if (curveId > 0) {
+                return EphemeralKeyPool.getECDH(curveId,
+                        sslContext.getSecureRandom());
+            }
+        }
+        return new ECDHCrypt(params, sslContext.getSecureRandom());
+    }
+
+    /*
+     * Keeps the ticket issued for the session, replacing any it was
+     * resumed with.  An empty ticket means the server didn't issue one
+     * after all.
+     */
+    private void serverSessionTicket(NewSessionTicket mesg)
+            throws IOException {
+        if (debug != null && Debug.isOn("handshake")) {
+            mesg.print(System.out);
+        }
+        SessionTicketExtension.setSessionTicket(session, mesg.ticket);
+    }
+    // END GRIZZLY NPN
+
     /*
      * The server's "Hello Done" message is the client's sign that
      * it's time to do all the hard work.
@@ -942,6 +1063,11 @@ final class ClientHandshaker extends Handshaker {
                     m1.print(System.out);
                 }
                 m1.write(output);
+                // BEGIN GRIZZLY NPN
+                if (fragmentLimited) {
+                    output.flush();
+                }
+                // END GRIZZLY NPN
             }
         }
 
@@ -1045,7 +1171,9 @@ final class ClientHandshaker extends Handshaker {
                             ("Server certificate does not include an EC key");
                 }
                 ECParameterSpec params = ((ECPublicKey)serverKey).getParams();
-                ecdh = new ECDHCrypt(params, sslContext.getSecureRandom());
+                // BEGIN GRIZZLY NPN
+                ecdh = newECDHCrypt(params);
+                // END GRIZZLY NPN
                 m2 = new ECDHClientKeyExchange(ecdh.getPublicKey());
                 break;
             case K_KRB5:
@@ -1508,8 +1636,11 @@ final class ClientHandshaker extends Handshaker {
 
         // add elliptic curves and point format extensions
         if (cipherSuites.containsEC()) {
-            EllipticCurvesExtension ece =
+            // BEGIN GRIZZLY NPN
+            EllipticCurvesExtension ece = (helloTemplate != null) ?
+                    helloTemplate.getCurves(algorithmConstraints) :
                     EllipticCurvesExtension.createExtension(algorithmConstraints);
+            // END GRIZZLY NPN
             if (ece != null) {
                 clientHelloMessage.extensions.add(ece);
                 clientHelloMessage.extensions.add(
@@ -1574,6 +1705,26 @@ final class ClientHandshaker extends Handshaker {
             // Add the ALPN extension to the ClientHello if the AlpnClientNegotiator
             // wants to attempt negotiation.
             clientHelloMessage.addAlpnExtension(engine);
+
+            // Ask for smaller records if so configured, and if our own
+            // handshake messages fit.
+            if ((MaxFragmentLengthExtension.getCode(maxFragmentLength) > 0) &&
+                    fitsMaxFragmentLength(maxFragmentLength)) {
+                clientHelloMessage.extensions.add(
+                        new MaxFragmentLengthExtension(maxFragmentLength));
+                requestedMaxFragmentLength = maxFragmentLength;
+            }
+
+            // Ask for a ticket, or present the one held for the session
+            // to resume.
+            if (useSessionTickets) {
+                byte[] ticket = (session != null) ?
+                        SessionTicketExtension.getSessionTicket(session) : null;
+                clientHelloMessage.extensions.add((ticket != null) ?
+                        new SessionTicketExtension(ticket) :
+                        new SessionTicketExtension());
+                requestedSessionTicket = true;
+            }
         }
         // END GRIZZLY NPN
 
@@ -1642,6 +1793,19 @@ final class ClientHandshaker extends Handshaker {
                 keyExchangeString = keyExchange.name;
             }
 
+            // BEGIN GRIZZLY NPN
+            TrustedChains.Key trustKey = null;
+            if (TrustedChains.enabled && (engine != null)) {
+                trustKey = new TrustedChains.Key(tm, peerCerts,
+                        keyExchangeString, true, getHostSE(), serverNames,
+                        getEndpointIdentificationAlgorithmSE(),
+                        protocolVersion, getLocalSupportedSignAlgs(),
+                        engine.getUserAlgorithmConstraints());
+            }
+            if ((trustKey != null) && TrustedChains.isTrusted(trustKey)) {
+                // accepted before, the TrustManager isn't asked again
+            } else {
+            // END GRIZZLY NPN
             if (tm instanceof X509ExtendedTrustManager) {
                 if (conn != null) {
                     ((X509ExtendedTrustManager)tm).checkServerTrusted(
@@ -1660,6 +1824,12 @@ final class ClientHandshaker extends Handshaker {
                 throw new CertificateException(
                         "Improper X509TrustManager implementation");
             }
+            // BEGIN GRIZZLY NPN
+            if (trustKey != null) {
+                TrustedChains.setTrusted(trustKey);
+            }
+            }
+            // END GRIZZLY NPN
         } catch (CertificateException e) {
             // This will throw an exception, so include the original error.
             fatalSE(Alerts.alert_certificate_unknown, e);
@@ -1667,6 +1837,60 @@ final class ClientHandshaker extends Handshaker {
         session.setPeerCertificates(peerCerts);
     }
 
+    // BEGIN GRIZZLY NPN
+    /*
+     * The client side of ServerHandshaker.fitsMaxFragmentLength():
+     * handshake messages can't be fragmented, so a max_fragment_length
+     * is only asked for if every message the client may send after the
+     * ServerHello fits into a single fragment.  The server's key, which
+     * bounds RSA encrypted secrets and DH public values, isn't known
+     * yet, so keys of up to 4096 bits are assumed.  Certificate and
+     * CertificateVerify are estimated from every client chain of the
+     * KeyManager, in case the server asks for one.
+     */
+    private boolean fitsMaxFragmentLength(int length) {
+        int size = 0;
+        for (CipherSuite suite : getActiveCipherSuites().collection()) {
+            switch (suite.keyExchange) {
+                case K_SCSV:
+                    break;
+                case K_KRB5:
+                case K_KRB5_EXPORT:
+                    // ClientKeyExchange carries a Kerberos ticket
+                    return false;
+                default:
+                    // ClientKeyExchange: a point of up to 521 bits, or an
+                    // RSA encrypted secret or DH public value
+                    size = Math.max(size,
+                            suite.keyExchange.isEC ? (4 + 134) : (4 + 2 + 512));
+                    break;
+            }
+        }
+
+        X509ExtendedKeyManager km = sslContext.getX509KeyManager();
+        for (String keyType : new String[] { "RSA", "DSA", "EC" }) {
+            String[] aliases = km.getClientAliases(keyType, null);
+            if (aliases == null) {
+                continue;
+            }
+            for (String alias : aliases) {
+                X509Certificate[] chain = km.getCertificateChain(alias);
+                if ((chain == null) || (chain.length == 0)) {
+                    continue;
+                }
+                // Certificate, and CertificateVerify: the signature and
+                // hash algorithms and a signature bounded by the key
+                int keySize = chain[0].getPublicKey().getEncoded().length;
+                size = Math.max(size, Math.max(
+                        new CertificateMsg(chain).messageLength() + 4,
+                        4 + 2 + 2 + keySize));
+            }
+        }
+
+        return size <= length;
+    }
+    // END GRIZZLY NPN
+
     /*
      * Whether the certificates can represent the same identity?
      *
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package sun.security.ssl;
+
+import java.lang.ref.WeakReference;
+import java.security.AlgorithmConstraints;
+import java.util.Arrays;
+import java.util.Collection;
+
+/*
+ * Templates of the parts of ClientHellos which only depend on the
+ * configuration of the engine: the active protocols and cipher suites,
+ * the supported signature algorithms and the elliptic_curves extension.
+ * Each of these is otherwise worked out again for every handshake by
+ * checking all enabled protocols, cipher suites, signature algorithms or
+ * curves against the algorithm constraints.
+ *
+ * Client handshakes with the same enabled protocols, enabled cipher
+ * suites and algorithm constraints of the SSLParameters share a
+ * template, whatever their peer.  Up to MAX_TEMPLATES configurations are
+ * kept.  The per connection parts of a ClientHello, its random, session
+ * id and the extensions depending on the peer, are still filled in for
+ * each handshake.
+ *
+ * Enabled by org.glassfish.grizzly.npn.clientHelloTemplates, which also
+ * has client handshakes take their ephemeral ECDH keys from the
+ * EphemeralKeyPool.
+ */
+final class ClientHelloTemplates {
+
+    static final boolean enabled = Debug.getBooleanProperty(
+            "org.glassfish.grizzly.npn.clientHelloTemplates", false);
+
+    private static final int MAX_TEMPLATES = 64;
+
+    private static final BoundedCache<Key, Template> templates =
+            new BoundedCache<Key, Template>(MAX_TEMPLATES);
+
+    private ClientHelloTemplates() {
+    }
+
+    static Template get(ProtocolList enabledProtocols,
+            CipherSuiteList enabledCipherSuites,
+            AlgorithmConstraints userConstraints) {
+        Key key = new Key(enabledProtocols.toStringArray(),
+                enabledCipherSuites.toStringArray(), userConstraints);
+        Template template = templates.get(key);
+        if (template == null) {
+            Template newTemplate = new Template();
+            template = templates.putIfAbsent(key, newTemplate);
+            if (template == null) {
+                template = newTemplate;
+            }
+        }
+        return template;
+    }
+
+    /*
+     * Each part is filled in by the first handshake computing it.
+     */
+    static final class Template {
+
+        volatile ProtocolList activeProtocols;
+        volatile CipherSuiteList activeCipherSuites;
+        volatile Collection<SignatureAndHashAlgorithm> localSupportedSignAlgs;
+
+        private volatile EllipticCurvesExtension curves;
+        private volatile boolean curvesComputed;
+
+        // may be null, if no curve is permitted
+        EllipticCurvesExtension getCurves(AlgorithmConstraints constraints) {
+            if (!curvesComputed) {
+                curves = EllipticCurvesExtension.createExtension(constraints);
+                curvesComputed = true;
+            }
+            return curves;
+        }
+
+    } // END Template
+
+    private static final class Key {
+
+        private final String[] protocols;
+        private final String[] cipherSuites;
+        private final WeakReference<AlgorithmConstraints> userConstraints;
+        private final int hash;
+
+        Key(String[] protocols, String[] cipherSuites,
+                AlgorithmConstraints userConstraints) {
+            this.protocols = protocols;
+            this.cipherSuites = cipherSuites;
+            this.userConstraints = BoundedCache.weak(userConstraints);
+            this.hash = 31 * (31 * Arrays.hashCode(protocols) +
+                    Arrays.hashCode(cipherSuites)) +
+                    System.identityHashCode(userConstraints);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)o;
+            return BoundedCache.sameReferent(userConstraints,
+                    other.userConstraints) &&
+                    Arrays.equals(protocols, other.protocols) &&
+                    Arrays.equals(cipherSuites, other.cipherSuites);
+        }
+
+    } // END Key
+
+} // END ClientHelloTemplates
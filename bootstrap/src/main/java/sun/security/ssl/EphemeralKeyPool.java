@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package sun.security.ssl;
+
+import java.lang.ref.WeakReference;
+import java.security.AccessController;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.glassfish.grizzly.npn.KeyPoolMetrics;
+import org.glassfish.grizzly.npn.KeyPoolSupport;
+
+import sun.security.action.GetIntegerAction;
+
+/*
+ * Pools of ephemeral ECDHE and DHE key pairs, one per named curve and
+ * per DH group size, refilled by background threads so that handshakes
+ * don't have to generate them.  Each key pair is still used by a single
+ * handshake only.
+ *
+ * Key pairs come from the SecureRandom of the SSLContext whose handshake
+ * asks for them, as they would without the pool: each SecureRandom has
+ * pools of its own, which are dropped once it has been collected.
+ *
+ * A pool is created, and filled up to
+ * org.glassfish.grizzly.npn.ephemeralKeyPool.size key pairs, when its
+ * curve or group size is first asked for.  Taking a key pair out of a
+ * pool schedules its refill on one of
+ * org.glassfish.grizzly.npn.ephemeralKeyPool.threads daemon threads.
+ * A handshake finding its pool empty generates its key pair itself.
+ */
+final class EphemeralKeyPool {
+
+    private static final Debug debug = Debug.getInstance("ssl");
+
+    // Whether servers take their ephemeral key pairs from the pool.
+    static final boolean enabled = Debug.getBooleanProperty(
+            "org.glassfish.grizzly.npn.ephemeralKeyPool", false);
+
+    private static final int capacity = Math.max(1,
+            AccessController.doPrivileged(new GetIntegerAction(
+                    "org.glassfish.grizzly.npn.ephemeralKeyPool.size", 32)));
+
+    private static final int threads = Math.max(1,
+            AccessController.doPrivileged(new GetIntegerAction(
+                    "org.glassfish.grizzly.npn.ephemeralKeyPool.threads", 1)));
+
+    // the pools of each SecureRandom, copied on write as there are only
+    // a few SSLContexts
+    private static volatile RandomPools[] randomPools = new RandomPools[0];
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private static final ThreadPoolExecutor refillers;
+
+    static {
+        refillers = new ThreadPoolExecutor(threads, threads,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r,
+                                "grizzly-npn-key-pool-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        refillers.allowCoreThreadTimeOut(true);
+    }
+
+    private EphemeralKeyPool() {
+    }
+
+    /*
+     * Returns a fresh ECDH key pair on the named curve, made with the
+     * specified randomness, generated right away if the pool has none.
+     */
+    static ECDHCrypt getECDH(final int curveId, SecureRandom random) {
+        RandomPools pools = getPools(random);
+        Pool<ECDHCrypt> pool = pools.ecdh.get(curveId);
+        if (pool == null) {
+            pool = addPool(pools.ecdh, curveId,
+                    new Pool<ECDHCrypt>(pools.random) {
+                        @Override
+                        ECDHCrypt generate(SecureRandom random) {
+                            return new ECDHCrypt(curveId, random);
+                        }
+                    });
+        }
+        return pool.take(random);
+    }
+
+    /*
+     * Returns a fresh DH key pair of the specified size, made with the
+     * specified randomness, generated right away if the pool has none.
+     */
+    static DHCrypt getDH(final int keySize, SecureRandom random) {
+        RandomPools pools = getPools(random);
+        Pool<DHCrypt> pool = pools.dh.get(keySize);
+        if (pool == null) {
+            pool = addPool(pools.dh, keySize,
+                    new Pool<DHCrypt>(pools.random) {
+                        @Override
+                        DHCrypt generate(SecureRandom random) {
+                            return new DHCrypt(keySize, random);
+                        }
+                    });
+        }
+        return pool.take(random);
+    }
+
+    private static RandomPools getPools(SecureRandom random) {
+        for (RandomPools pools : randomPools) {
+            if (pools.random.get() == random) {
+                return pools;
+            }
+        }
+        return addPools(random);
+    }
+
+    private static synchronized RandomPools addPools(SecureRandom random) {
+        List<RandomPools> live =
+                new ArrayList<RandomPools>(randomPools.length + 1);
+        for (RandomPools pools : randomPools) {
+            SecureRandom r = pools.random.get();
+            if (r == random) {
+                return pools;
+            } else if (r != null) {
+                live.add(pools);
+            }
+        }
+        if (KeyPoolSupport.getMetrics() == null) {
+            // registered on first use, so that there are no metrics
+            // unless the pool is used
+            KeyPoolSupport.setMetrics(new Metrics());
+        }
+        RandomPools added = new RandomPools(random);
+        live.add(added);
+        randomPools = live.toArray(new RandomPools[live.size()]);
+        return added;
+    }
+
+    private static <T> Pool<T> addPool(
+            ConcurrentHashMap<Integer, Pool<T>> pools, Integer key,
+            Pool<T> newPool) {
+        Pool<T> pool = pools.putIfAbsent(key, newPool);
+        return (pool != null) ? pool : newPool;
+    }
+
+    private static final class RandomPools {
+
+        final WeakReference<SecureRandom> random;
+        final ConcurrentHashMap<Integer, Pool<ECDHCrypt>> ecdh =
+                new ConcurrentHashMap<Integer, Pool<ECDHCrypt>>(4);
+        final ConcurrentHashMap<Integer, Pool<DHCrypt>> dh =
+                new ConcurrentHashMap<Integer, Pool<DHCrypt>>(4);
+
+        RandomPools(SecureRandom random) {
+            this.random = new WeakReference<SecureRandom>(random);
+        }
+
+    } // END RandomPools
+
+    private static abstract class Pool<T> implements Runnable {
+
+        final BlockingQueue<T> keys = new ArrayBlockingQueue<T>(capacity);
+        final AtomicBoolean refilling = new AtomicBoolean();
+        // weak, so that the pools don't keep their SecureRandom reachable
+        final WeakReference<SecureRandom> random;
+
+        Pool(WeakReference<SecureRandom> random) {
+            this.random = random;
+        }
+
+        abstract T generate(SecureRandom random);
+
+        T take(SecureRandom fallback) {
+            T key = keys.poll();
+            if (key != null) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+            }
+            if (refilling.compareAndSet(false, true)) {
+                refillers.execute(this);
+            }
+            return (key != null) ? key : generate(fallback);
+        }
+
+        @Override
+        public void run() {
+            try {
+                SecureRandom r = random.get();
+                while ((r != null) && (keys.remainingCapacity() > 0)) {
+                    keys.offer(generate(r));
+                }
+            } catch (RuntimeException e) {
+                if (debug != null && Debug.isOn("handshake")) {
+                    System.out.println(
+                            "Can't pre-generate ephemeral keys: " + e);
+                }
+            } finally {
+                refilling.set(false);
+            }
+        }
+
+    } // END Pool
+
+    private static final class Metrics implements KeyPoolMetrics {
+
+        @Override
+        public Map<String, Integer> getDepths() {
+            // the pools of all SecureRandoms added up
+            Map<String, Integer> depths = new TreeMap<String, Integer>();
+            for (RandomPools pools : randomPools) {
+                for (Map.Entry<Integer, Pool<ECDHCrypt>> entry :
+                        pools.ecdh.entrySet()) {
+                    addDepth(depths, "ecdhe-" + entry.getKey(),
+                            entry.getValue().keys.size());
+                }
+                for (Map.Entry<Integer, Pool<DHCrypt>> entry :
+                        pools.dh.entrySet()) {
+                    addDepth(depths, "dhe-" + entry.getKey(),
+                            entry.getValue().keys.size());
+                }
+            }
+            return depths;
+        }
+
+        private static void addDepth(Map<String, Integer> depths,
+                String name, int depth) {
+            Integer previous = depths.get(name);
+            depths.put(name, (previous != null) ? previous + depth : depth);
+        }
+
+        @Override
+        public int getCapacity() {
+            return capacity;
+        }
+
+        @Override
+        public long getHits() {
+            return hits.get();
+        }
+
+        @Override
+        public long getMisses() {
+            return misses.get();
+        }
+
+    } // END Metrics
+
+} // END EphemeralKeyPool
@@ -105,5 +105,9 @@ final class ExtensionType {
     final static ExtensionType EXT_NEXT_PROTOCOL_NEGOTIATION =
             e(NextProtocolNegotiationExtension.EXTENSION_ID,
               "next_protocol_negotiation");
+
+    // extension defined in RFC 5077
+    final static ExtensionType EXT_SESSION_TICKET =
+            e(SessionTicketExtension.ID, "SessionTicket");
     // END GRIZZLY NPN
 }
@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package sun.security.ssl;
+
+import java.io.IOException;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.glassfish.grizzly.npn.ExternalSessionStore;
+import org.glassfish.grizzly.npn.SessionCacheSupport;
+
+import sun.security.action.GetIntegerAction;
+
+/*
+ * Connects server handshakes to ExternalSessionStores.
+ *
+ * Sessions are stored the way they are put into session tickets, that
+ * is encrypted with the SessionTicketKeys, so that stores never see
+ * master secrets.
+ *
+ * Lookups, except those of non-blocking stores, run on a small pool of
+ * daemon threads.  A handshake waits for a lookup for at most
+ * org.glassfish.grizzly.npn.externalSessionStore.timeout milliseconds,
+ * and makes a full handshake if the store didn't answer in time or the
+ * pool is saturated.  Engines wait in a delegated task, so that the
+ * engine isn't locked meanwhile.  New sessions are queued, then
+ * encoded and handed to their store in batches of up to
+ * org.glassfish.grizzly.npn.externalSessionStore.batchSize by a daemon
+ * thread per store, which waits for a batch to fill for at most
+ * org.glassfish.grizzly.npn.externalSessionStore.flushInterval
+ * milliseconds.  Sessions are dropped if the store can't keep up.
+ * Once its store isn't registered with SessionCacheSupport anymore,
+ * having been removed or replaced, the thread stops after being idle
+ * for a second and forgets the store.  Sessions are only queued under
+ * the lock of a writer which hasn't stopped, so none is left behind.
+ *
+ * Lookups that time out are cancelled without interrupting the store,
+ * which keeps its thread until it answers.  The threads don't keep the
+ * context class loader or access control context of the application
+ * whose handshake started them.
+ */
+final class ExternalSessions {
+
+    private static final Debug debug = Debug.getInstance("ssl");
+
+    private static final int lookupTimeout = AccessController.doPrivileged(
+            new GetIntegerAction(
+                    "org.glassfish.grizzly.npn.externalSessionStore.timeout",
+                    10));
+
+    private static final int batchSize = Math.max(1,
+            AccessController.doPrivileged(new GetIntegerAction(
+                    "org.glassfish.grizzly.npn.externalSessionStore.batchSize",
+                    64)));
+
+    private static final int flushInterval = AccessController.doPrivileged(
+            new GetIntegerAction(
+                    "org.glassfish.grizzly.npn.externalSessionStore.flushInterval",
+                    50));
+
+    private static final int MAX_PENDING_LOOKUPS = 256;
+    private static final int MAX_PENDING_STORES = 4096;
+
+    // how often an idle writer checks whether its store is still in use
+    private static final long CHECK_INTERVAL = 1000;
+
+    private static final ThreadPoolExecutor lookups;
+
+    static {
+        int threads = 2 * Runtime.getRuntime().availableProcessors();
+        lookups = new ThreadPoolExecutor(threads, threads,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING_LOOKUPS),
+                new DaemonThreadFactory("grizzly-npn-session-lookup-"));
+        lookups.allowCoreThreadTimeOut(true);
+    }
+
+    private static final ConcurrentHashMap<ExternalSessionStore, Writer> writers =
+            new ConcurrentHashMap<ExternalSessionStore, Writer>(4);
+
+    private static final ThreadFactory writerThreads =
+            new DaemonThreadFactory("grizzly-npn-session-store-");
+
+    private ExternalSessions() {
+    }
+
+    /*
+     * Returns the encrypted state stored for a session, or null if there
+     * is none or the store didn't answer within the time budget.  Blocks
+     * the caller while waiting for the store; engines start a lookup()
+     * and wait for it in a delegated task instead.
+     */
+    static byte[] get(ExternalSessionStore store, byte[] sessionId) {
+        if (store.isNonBlocking()) {
+            try {
+                return store.get(sessionId);
+            } catch (Exception e) {
+                if (debug != null && Debug.isOn("session")) {
+                    System.out.println("Session store lookup failed: " + e);
+                }
+                return null;
+            }
+        }
+
+        Future<byte[]> lookup = lookup(store, sessionId);
+        if (lookup == null) {
+            return null;
+        }
+        await(lookup);
+        return getResult(lookup);
+    }
+
+    /*
+     * Starts looking a session up on the lookup pool, or returns null if
+     * the pool is saturated.
+     */
+    static Future<byte[]> lookup(final ExternalSessionStore store,
+            final byte[] sessionId) {
+        try {
+            return lookups.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return store.get(sessionId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (debug != null && Debug.isOn("session")) {
+                System.out.println("Too many pending session store lookups");
+            }
+            return null;
+        }
+    }
+
+    /*
+     * Waits for a lookup to complete, and cancels it if the store didn't
+     * answer within the time budget.
+     */
+    static void await(Future<?> lookup) {
+        try {
+            lookup.get(lookupTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            lookup.cancel(false);
+            Thread.currentThread().interrupt();
+        } catch (TimeoutException e) {
+            lookup.cancel(false);
+            if (debug != null && Debug.isOn("session")) {
+                System.out.println("Session store lookup timed out");
+            }
+        } catch (Exception e) {
+            // reported by getResult()
+        }
+    }
+
+    /*
+     * Returns the state found by a lookup, or null if it didn't complete
+     * or failed.  Doesn't block.
+     */
+    static byte[] getResult(Future<byte[]> lookup) {
+        if (!lookup.isDone() || lookup.isCancelled()) {
+            return null;
+        }
+        try {
+            return lookup.get();
+        } catch (Exception e) {
+            if (debug != null && Debug.isOn("session")) {
+                System.out.println("Session store lookup failed: " + e);
+            }
+            return null;
+        }
+    }
+
+    /*
+     * Queues a new session to be stored, to expire after timeout
+     * seconds, or never if 0.
+     */
+    static void put(ExternalSessionStore store, SSLSessionImpl session,
+            int timeout, SecureRandom random) {
+        long expirationTime = (timeout > 0) ?
+                session.getCreationTime() + timeout * 1000L : Long.MAX_VALUE;
+        PendingSession pending =
+                new PendingSession(session, expirationTime, random);
+        while (true) {
+            Writer writer = writers.get(store);
+            if (writer == null) {
+                Writer newWriter = new Writer(store);
+                writer = writers.putIfAbsent(store, newWriter);
+                if (writer == null) {
+                    writer = newWriter;
+                    writerThreads.newThread(writer).start();
+                }
+            }
+
+            synchronized (writer) {
+                if (!writer.stopped) {
+                    if (!writer.pending.offer(pending) &&
+                            debug != null && Debug.isOn("session")) {
+                        System.out.println(
+                                "Session store is behind, dropped " + session);
+                    }
+                    return;
+                }
+            }
+            // the writer stopped in the meantime, start another one
+            writers.remove(store, writer);
+        }
+    }
+
+    private static final class PendingSession {
+
+        final SSLSessionImpl session;
+        final long expirationTime;
+        final SecureRandom random;
+
+        PendingSession(SSLSessionImpl session, long expirationTime,
+                SecureRandom random) {
+            this.session = session;
+            this.expirationTime = expirationTime;
+            this.random = random;
+        }
+
+    } // END PendingSession
+
+    private static final class Writer implements Runnable {
+
+        final ExternalSessionStore store;
+        final BlockingQueue<PendingSession> pending =
+                new ArrayBlockingQueue<PendingSession>(MAX_PENDING_STORES);
+
+        // set once the writer doesn't take sessions anymore, guarded by
+        // the writer
+        boolean stopped;
+
+        Writer(ExternalSessionStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public void run() {
+            try {
+                write();
+            } finally {
+                synchronized (this) {
+                    stopped = true;
+                }
+                writers.remove(store, this);
+            }
+        }
+
+        /*
+         * Stops the writer, unless a session was queued since it last
+         * looked.
+         */
+        private synchronized boolean stopIfIdle() {
+            if (pending.isEmpty()) {
+                stopped = true;
+            }
+            return stopped;
+        }
+
+        private void write() {
+            List<ExternalSessionStore.Entry> batch =
+                    new ArrayList<ExternalSessionStore.Entry>(batchSize);
+            while (true) {
+                try {
+                    PendingSession first = pending.poll(
+                            CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        if (!SessionCacheSupport
+                                .isExternalSessionStoreRegistered(store) &&
+                                stopIfIdle()) {
+                            return;
+                        }
+                        continue;
+                    }
+                    add(batch, first);
+                    long deadline = System.currentTimeMillis() + flushInterval;
+                    while (batch.size() < batchSize) {
+                        long wait = deadline - System.currentTimeMillis();
+                        PendingSession next = (wait > 0) ?
+                                pending.poll(wait, TimeUnit.MILLISECONDS) :
+                                pending.poll();
+                        if (next == null) {
+                            break;
+                        }
+                        add(batch, next);
+                    }
+                    if (!batch.isEmpty()) {
+                        store.put(batch);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    if (debug != null && Debug.isOn("session")) {
+                        System.out.println("Can't store " + batch.size() +
+                                " sessions: " + e);
+                    }
+                }
+                batch.clear();
+            }
+        }
+
+        private static void add(List<ExternalSessionStore.Entry> batch,
+                PendingSession pending) {
+            byte[] state;
+            try {
+                state = SessionStateCodec.encode(pending.session);
+            } catch (IOException e) {
+                state = null;
+                if (debug != null && Debug.isOn("session")) {
+                    System.out.println("Can't encode " + pending.session +
+                            ": " + e);
+                }
+            }
+            if (state == null) {
+                return;
+            }
+            byte[] encrypted = SessionTicketKeys.encrypt(state, pending.random);
+            if (encrypted != null) {
+                batch.add(new ExternalSessionStore.Entry(
+                        pending.session.getSessionId().getId(), encrypted,
+                        pending.expirationTime));
+            }
+        }
+
+    } // END Writer
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            // privileged, so that the thread doesn't inherit the access
+            // control context of the application starting it
+            return AccessController.doPrivileged(
+                    new PrivilegedAction<Thread>() {
+                        @Override
+                        public Thread run() {
+                            Thread thread = new Thread(r,
+                                    prefix + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            thread.setContextClassLoader(null);
+                            return thread;
+                        }
+                    });
+        }
+
+    } // END DaemonThreadFactory
+
+} // END ExternalSessions
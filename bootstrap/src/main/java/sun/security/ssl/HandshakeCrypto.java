@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package sun.security.ssl;
+
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Reusable instances of the JCA objects used by handshake messages.
+ * Obtaining a Signature or KeyFactory has the JCA look up a provider and
+ * instantiate its implementation, which shows at high handshake rates,
+ * while each handshake message uses its instance only briefly.
+ *
+ * Signatures verifying a peer's signature are taken from a pool shared
+ * by all threads, and returned by release() once the signature has been
+ * verified; initVerify() resets them for the next use.  As the provider
+ * of a Signature is selected by the first key it is initialized with,
+ * they are pooled per algorithm and class of key, up to one per
+ * processor.  A pooled instance only holds a peer's public key.
+ * Signatures for signing aren't reused, as they would keep the local
+ * private key until their next use.
+ *
+ * A KeyFactory keeps no state between calls, and is kept per thread.
+ *
+ * Enabled by org.glassfish.grizzly.npn.handshakeCryptoPool.
+ */
+final class HandshakeCrypto {
+
+    static final boolean enabled = Debug.getBooleanProperty(
+            "org.glassfish.grizzly.npn.handshakeCryptoPool", false);
+
+    private static final int MAX_POOLED =
+            Runtime.getRuntime().availableProcessors();
+
+    private static final ConcurrentHashMap<String, BlockingQueue<Signature>>
+            signatures =
+                    new ConcurrentHashMap<String, BlockingQueue<Signature>>();
+
+    private static final ThreadLocal<Map<String, KeyFactory>> keyFactories =
+            new ThreadLocal<Map<String, KeyFactory>>() {
+                @Override
+                protected Map<String, KeyFactory> initialValue() {
+                    return new HashMap<String, KeyFactory>();
+                }
+            };
+
+    private HandshakeCrypto() {
+    }
+
+    /*
+     * Returns a Signature for the algorithm, which the caller must
+     * initialize with the key before using it, and may release() once
+     * it has verified a signature.
+     */
+    static Signature getSignature(String algorithm, Key key)
+            throws NoSuchAlgorithmException {
+        if (!enabled || !(key instanceof PublicKey)) {
+            return JsseJce.getSignature(algorithm);
+        }
+        Signature signature = getPool(algorithm, key).poll();
+        return (signature != null) ?
+                signature : JsseJce.getSignature(algorithm);
+    }
+
+    /*
+     * Returns a Signature which has been used with the public key to the
+     * pool.  Signatures may also come from elsewhere than getSignature().
+     */
+    static void release(Signature signature, PublicKey key) {
+        if (enabled) {
+            getPool(signature.getAlgorithm(), key).offer(signature);
+        }
+    }
+
+    private static BlockingQueue<Signature> getPool(String algorithm,
+            Key key) {
+        String name = algorithm + '/' + key.getClass().getName();
+        BlockingQueue<Signature> pool = signatures.get(name);
+        if (pool == null) {
+            BlockingQueue<Signature> newPool =
+                    new ArrayBlockingQueue<Signature>(MAX_POOLED);
+            pool = signatures.putIfAbsent(name, newPool);
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+        return pool;
+    }
+
+    static KeyFactory getKeyFactory(String algorithm)
+            throws NoSuchAlgorithmException {
+        if (!enabled) {
+            return JsseJce.getKeyFactory(algorithm);
+        }
+        Map<String, KeyFactory> instances = keyFactories.get();
+        KeyFactory keyFactory = instances.get(algorithm);
+        if (keyFactory == null) {
+            keyFactory = JsseJce.getKeyFactory(algorithm);
+            instances.put(algorithm, keyFactory);
+        }
+        return keyFactory;
+    }
+
+} // END HandshakeCrypto
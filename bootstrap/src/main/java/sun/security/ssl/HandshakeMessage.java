@@ -87,6 +87,9 @@ public abstract class HandshakeMessage {
     // Defined by Draft03, section 3:
     //  A new handshake message type ("next_protocol(67)") is defined.
     static final byte   ht_next_protocol = 67;
+
+    // Defined by RFC 5077, section 3.3.
+    static final byte   ht_new_session_ticket = 4;
     // END GRIZZLY NPN
 
     /* Class and subclass dynamic debugging support */
@@ -273,6 +276,62 @@ public abstract class HandshakeMessage {
     }
     // END GRIZZLY NPN
 
+    // BEGIN GRIZZLY NPN
+    /*
+     * NewSessionTicket ... SERVER --> CLIENT
+     *
+     * RFC 5077, section 3.3: sent by the server after the client's
+     * Finished message, or after ServerHello when resuming, if the
+     * server included an empty "SessionTicket" extension in its
+     * ServerHello.  The ticket is opaque to the client.
+     *
+     * struct {
+     *     uint32 ticket_lifetime_hint;
+     *     opaque ticket<0..2^16-1>;
+     * } NewSessionTicket;
+     */
+    static final class NewSessionTicket extends HandshakeMessage {
+
+        final long lifetimeHint;
+        final byte[] ticket;
+
+        NewSessionTicket(long lifetimeHint, byte[] ticket) {
+            this.lifetimeHint = lifetimeHint;
+            this.ticket = ticket;
+        }
+
+        NewSessionTicket(HandshakeInStream in) throws IOException {
+            lifetimeHint = ((long) in.getInt16() << 16) | in.getInt16();
+            ticket = in.getBytes16();
+        }
+
+        @Override
+        int messageType() {
+            return ht_new_session_ticket;
+        }
+
+        @Override
+        int messageLength() {
+            return 6 + ticket.length;
+        }
+
+        @Override
+        void send(HandshakeOutStream s) throws IOException {
+            s.putInt16((int) (lifetimeHint >>> 16));
+            s.putInt16((int) lifetimeHint);
+            s.putBytes16(ticket);
+        }
+
+        @Override
+        void print(PrintStream p) throws IOException {
+            p.println(String.format(
+                    "*** NewSessionTicket lifetime hint: %d, ticket length: %d",
+                    lifetimeHint, ticket.length));
+        }
+
+    }
+    // END GRIZZLY NPN
+
     /*
      * HelloRequest ... SERVER --> CLIENT
      *
@@ -770,7 +829,9 @@ public abstract class HandshakeMessage {
          */
         PublicKey getPublicKey() {
             try {
-                KeyFactory kfac = JsseJce.getKeyFactory("RSA");
+                // BEGIN GRIZZLY NPN
+                KeyFactory kfac = HandshakeCrypto.getKeyFactory("RSA");
+                // END GRIZZLY NPN
                 // modulus and exponent are always positive
                 RSAPublicKeySpec kspec = new RSAPublicKeySpec(
                         new BigInteger(1, rsa_modulus),
@@ -882,11 +943,17 @@ public abstract class HandshakeMessage {
             Signature sig;
             if (protocolVersion.v >= ProtocolVersion.TLS12.v) {
                 this.preferableSignatureAlgorithm = signAlgorithm;
-                sig = JsseJce.getSignature(signAlgorithm.getAlgorithmName());
+                // BEGIN GRIZZLY NPN
+                sig = HandshakeCrypto.getSignature(
+                        signAlgorithm.getAlgorithmName(), key);
+                // END GRIZZLY NPN
             } else {
                 this.preferableSignatureAlgorithm = null;
                 if (key.getAlgorithm().equals("DSA")) {
-                    sig = JsseJce.getSignature(JsseJce.SIGNATURE_DSA);
+                    // BEGIN GRIZZLY NPN
+                    sig = HandshakeCrypto.getSignature(
+                            JsseJce.SIGNATURE_DSA, key);
+                    // END GRIZZLY NPN
                 } else {
                     sig = RSASignature.getInstance();
                 }
@@ -976,12 +1043,18 @@ public abstract class HandshakeMessage {
             Signature sig;
             String algorithm = publicKey.getAlgorithm();
             if (protocolVersion.v >= ProtocolVersion.TLS12.v) {
-                sig = JsseJce.getSignature(
-                        preferableSignatureAlgorithm.getAlgorithmName());
+                // BEGIN GRIZZLY NPN
+                sig = HandshakeCrypto.getSignature(
+                        preferableSignatureAlgorithm.getAlgorithmName(),
+                        publicKey);
+                // END GRIZZLY NPN
             } else {
                 switch (algorithm) {
                     case "DSA":
-                        sig = JsseJce.getSignature(JsseJce.SIGNATURE_DSA);
+                        // BEGIN GRIZZLY NPN
+                        sig = HandshakeCrypto.getSignature(
+                                JsseJce.SIGNATURE_DSA, publicKey);
+                        // END GRIZZLY NPN
                         break;
                     case "RSA":
                         sig = RSASignature.getInstance();
@@ -998,6 +1071,9 @@ public abstract class HandshakeMessage {
             if (sig.verify(signature) == false ) {
                 throw new SSLKeyException("Server D-H key verification failed");
             }
+            // BEGIN GRIZZLY NPN
+            HandshakeCrypto.release(sig, publicKey);
+            // END GRIZZLY NPN
         }
 
         /* Return the Diffie-Hellman modulus */
@@ -1165,7 +1241,10 @@ public abstract class HandshakeMessage {
             Signature sig;
             if (protocolVersion.v >= ProtocolVersion.TLS12.v) {
                 this.preferableSignatureAlgorithm = signAlgorithm;
-                sig = JsseJce.getSignature(signAlgorithm.getAlgorithmName());
+                // BEGIN GRIZZLY NPN
+                sig = HandshakeCrypto.getSignature(
+                        signAlgorithm.getAlgorithmName(), privateKey);
+                // END GRIZZLY NPN
             } else {
                 sig = getSignature(privateKey.getAlgorithm());
             }
@@ -1214,7 +1293,9 @@ public abstract class HandshakeMessage {
             pointBytes = input.getBytes8();
 
             ECPoint point = JsseJce.decodePoint(pointBytes, parameters.getCurve());
-            KeyFactory factory = JsseJce.getKeyFactory("EC");
+            // BEGIN GRIZZLY NPN
+            KeyFactory factory = HandshakeCrypto.getKeyFactory("EC");
+            // END GRIZZLY NPN
             publicKey = (ECPublicKey)factory.generatePublic(
                     new ECPublicKeySpec(point, parameters));
 
@@ -1247,8 +1328,11 @@ public abstract class HandshakeMessage {
             // verify the signature
             Signature sig;
             if (protocolVersion.v >= ProtocolVersion.TLS12.v) {
-                sig = JsseJce.getSignature(
-                        preferableSignatureAlgorithm.getAlgorithmName());
+                // BEGIN GRIZZLY NPN
+                sig = HandshakeCrypto.getSignature(
+                        preferableSignatureAlgorithm.getAlgorithmName(),
+                        signingKey);
+                // END GRIZZLY NPN
             } else {
                 sig = getSignature(signingKey.getAlgorithm());
             }
@@ -1260,6 +1344,9 @@ public abstract class HandshakeMessage {
                 throw new SSLKeyException(
                         "Invalid signature on ECDH server key exchange message");
             }
+            // BEGIN GRIZZLY NPN
+            HandshakeCrypto.release(sig, signingKey);
+            // END GRIZZLY NPN
         }
 
         /*
@@ -1723,7 +1810,10 @@ public abstract class HandshakeMessage {
             Signature sig = null;
             if (protocolVersion.v >= ProtocolVersion.TLS12.v) {
                 this.preferableSignatureAlgorithm = signAlgorithm;
-                sig = JsseJce.getSignature(signAlgorithm.getAlgorithmName());
+                // BEGIN GRIZZLY NPN
+                sig = HandshakeCrypto.getSignature(
+                        signAlgorithm.getAlgorithmName(), privateKey);
+                // END GRIZZLY NPN
             } else {
                 sig = getSignature(protocolVersion, algorithm);
             }
@@ -1780,15 +1870,22 @@ public abstract class HandshakeMessage {
             String algorithm = publicKey.getAlgorithm();
             Signature sig = null;
             if (protocolVersion.v >= ProtocolVersion.TLS12.v) {
-                sig = JsseJce.getSignature(
-                        preferableSignatureAlgorithm.getAlgorithmName());
+                // BEGIN GRIZZLY NPN
+                sig = HandshakeCrypto.getSignature(
+                        preferableSignatureAlgorithm.getAlgorithmName(),
+                        publicKey);
+                // END GRIZZLY NPN
             } else {
                 sig = getSignature(protocolVersion, algorithm);
             }
             sig.initVerify(publicKey);
             updateSignature(sig, protocolVersion, handshakeHash, algorithm,
                     masterSecret);
-            return sig.verify(signature);
+            // BEGIN GRIZZLY NPN
+            boolean verified = sig.verify(signature);
+            HandshakeCrypto.release(sig, publicKey);
+            return verified;
+            // END GRIZZLY NPN
         }
 
         /*
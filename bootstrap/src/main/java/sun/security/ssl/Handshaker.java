@@ -18,6 +18,7 @@ package sun.security.ssl;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Future;
 import java.security.*;
 import java.security.NoSuchAlgorithmException;
 import java.security.AccessController;
@@ -101,6 +102,11 @@ abstract class Handshaker {
      */
     private CipherSuiteList activeCipherSuites;
 
+    // BEGIN GRIZZLY NPN
+    // the template shared with client handshakes configured alike
+    ClientHelloTemplates.Template helloTemplate;
+    // END GRIZZLY NPN
+
     // The server name indication and matchers
     List<SNIServerName> serverNames = Collections.<SNIServerName>emptyList();
     Collection<SNIMatcher> sniMatchers = Collections.<SNIMatcher>emptyList();
@@ -167,6 +173,12 @@ abstract class Handshaker {
     private volatile DelegatedTask<?> delegatedTask = null;
     private volatile Exception thrown = null;
 
+    // BEGIN GRIZZLY NPN
+    // Set while a handshake message waits for a delegated task, which
+    // then processes the messages following it.
+    boolean messageDeferred;
+    // END GRIZZLY NPN
+
     // Could probably use a java.util.concurrent.atomic.AtomicReference
     // here instead of using this lock.  Consider changing.
     private Object thrownLock = new Object();
@@ -383,7 +395,12 @@ abstract class Handshaker {
         if (conn != null) {
             return conn.getAcc();
         } else {
-            return engine.getAcc();
+            // BEGIN GRIZZLY NPN
+            // null if there's neither a SecurityManager nor a Subject,
+            // see SSLEngineImpl.captureAcc()
+            AccessControlContext acc = engine.getAcc();
+            return (acc != null) ? acc : AccessController.getContext();
+            // END GRIZZLY NPN
         }
     }
 
@@ -464,6 +481,17 @@ abstract class Handshaker {
     }
 
     Collection<SignatureAndHashAlgorithm> getLocalSupportedSignAlgs() {
+        // BEGIN GRIZZLY NPN
+        if ((localSupportedSignAlgs == null) && (helloTemplate != null)) {
+            localSupportedSignAlgs = helloTemplate.localSupportedSignAlgs;
+            if (localSupportedSignAlgs == null) {
+                localSupportedSignAlgs =
+                        SignatureAndHashAlgorithm.getSupportedAlgorithms(
+                                algorithmConstraints);
+                helloTemplate.localSupportedSignAlgs = localSupportedSignAlgs;
+            }
+        }
+        // END GRIZZLY NPN
         if (localSupportedSignAlgs == null) {
             localSupportedSignAlgs =
                     SignatureAndHashAlgorithm.getSupportedAlgorithms(
@@ -521,6 +549,18 @@ abstract class Handshaker {
      * input stream and output stream.
      */
     void activate(ProtocolVersion helloVersion) throws IOException {
+        // BEGIN GRIZZLY NPN
+        if (isClient && ClientHelloTemplates.enabled && (engine != null)) {
+            helloTemplate = ClientHelloTemplates.get(enabledProtocols,
+                    enabledCipherSuites, engine.getUserAlgorithmConstraints());
+            if ((activeProtocols == null) && (activeCipherSuites == null) &&
+                    (helloTemplate.activeCipherSuites != null)) {
+                activeProtocols = helloTemplate.activeProtocols;
+                activeCipherSuites = helloTemplate.activeCipherSuites;
+            }
+        }
+        // END GRIZZLY NPN
+
         if (activeProtocols == null) {
             activeProtocols = getActiveProtocols();
         }
@@ -536,6 +576,14 @@ abstract class Handshaker {
             activeCipherSuites = getActiveCipherSuites();
         }
 
+        // BEGIN GRIZZLY NPN
+        if ((helloTemplate != null) &&
+                (helloTemplate.activeCipherSuites == null)) {
+            helloTemplate.activeProtocols = activeProtocols;
+            helloTemplate.activeCipherSuites = activeCipherSuites;
+        }
+        // END GRIZZLY NPN
+
         if (activeCipherSuites.collection().isEmpty()) {
             throw new SSLHandshakeException("No appropriate cipher suite");
         }
@@ -1053,6 +1101,11 @@ abstract class Handshaker {
                 processMessage(messageType, messageLen);
                 input.digestNow();
             }
+            // BEGIN GRIZZLY NPN
+            if (messageDeferred) {
+                return;
+            }
+            // END GRIZZLY NPN
         }
     }
 
@@ -1463,21 +1516,57 @@ abstract class Handshaker {
 
         private PrivilegedExceptionAction<E> pea;
 
+        // BEGIN GRIZZLY NPN
+        // an external session lookup to wait for, without holding the
+        // engine lock, before running pea; may be null
+        private Future<?> awaited;
+
         DelegatedTask(PrivilegedExceptionAction<E> pea) {
+            this(null, pea);
+        }
+
+        DelegatedTask(Future<?> awaited, PrivilegedExceptionAction<E> pea) {
+            this.awaited = awaited;
             this.pea = pea;
         }
+        // END GRIZZLY NPN
 
         public void run() {
+            // BEGIN GRIZZLY NPN
+            if (awaited != null) {
+                ExternalSessions.await(awaited);
+            }
+            // END GRIZZLY NPN
             synchronized (engine) {
                 try {
-                    AccessController.doPrivileged(pea, engine.getAcc());
+                    // BEGIN GRIZZLY NPN
+                    // Without a SecurityManager or a Subject there's no
+                    // context, and nothing to gain from running the task
+                    // privileged.
+                    AccessControlContext acc = engine.getAcc();
+                    if (acc != null) {
+                        AccessController.doPrivileged(pea, acc);
+                    } else {
+                        pea.run();
+                    }
+                    // END GRIZZLY NPN
                 } catch (PrivilegedActionException pae) {
                     thrown = pae.getException();
                 } catch (RuntimeException rte) {
                     thrown = rte;
+                // BEGIN GRIZZLY NPN
+                } catch (Exception e) {
+                    // thrown by pea.run() directly
+                    thrown = e;
+                // END GRIZZLY NPN
+                }
+                // BEGIN GRIZZLY NPN
+                // unless the task delegated another one
+                if (delegatedTask == this) {
+                    delegatedTask = null;
+                    taskDelegated = false;
                 }
-                delegatedTask = null;
-                taskDelegated = false;
+                // END GRIZZLY NPN
             }
         }
     }
@@ -1488,6 +1577,19 @@ abstract class Handshaker {
         thrown = null;
     }
 
+    // BEGIN GRIZZLY NPN
+    /*
+     * Delegates a task which first waits for an external session
+     * lookup.
+     */
+    <T> void delegateTask(Future<?> awaited,
+            PrivilegedExceptionAction<T> pea) {
+        delegatedTask = new DelegatedTask<T>(awaited, pea);
+        taskDelegated = false;
+        thrown = null;
+    }
+    // END GRIZZLY NPN
+
     DelegatedTask<?> getTask() {
         if (!taskDelegated) {
             taskDelegated = true;
@@ -80,6 +80,10 @@ final class HelloExtensions {
                 extension = NextProtocolNegotiationExtension.builder().handshakeIn(s, extlen).build();
             } else if (extType == ExtensionType.EXT_APPLICATION_LEVEL_PROTOCOL_NEGOTIATION) {
                 extension = AlpnExtension.builder().handshakeIn(s, extlen).build();
+            } else if (extType == ExtensionType.EXT_MAX_FRAGMENT_LENGTH) {
+                extension = new MaxFragmentLengthExtension(s, extlen);
+            } else if (extType == ExtensionType.EXT_SESSION_TICKET) {
+                extension = new SessionTicketExtension(s, extlen);
             // END GRIZZLY NPN
             } else if (extType == ExtensionType.EXT_EXTENDED_MASTER_SECRET) {
                 extension = new ExtendedMasterSecretExtension(s, extlen);
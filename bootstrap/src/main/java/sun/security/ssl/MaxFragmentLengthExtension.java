@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package sun.security.ssl;
+
+import java.io.IOException;
+
+import javax.net.ssl.SSLProtocolException;
+import javax.net.ssl.SSLSession;
+
+/*
+ * The max_fragment_length extension (RFC 6066, section 4).
+ *
+ * The client asks for records carrying at most 2^9, 2^10, 2^11 or 2^12
+ * bytes of plaintext, and the server echoes the same value if it agrees.
+ * The negotiated length applies for the lifetime of the session, including
+ * resumed connections, during which the extension isn't echoed; sessions
+ * are JDK classes, so their lengths are attached to them here, out of
+ * the applications' sight.
+ */
+final class MaxFragmentLengthExtension extends HelloExtension {
+
+    private static final String MFL_TO_STRING_MSG =
+            "Extension max_fragment_length, code: %d, length: %d";
+
+    static final int ID = 0x0001;
+
+    // the negotiated lengths of the sessions
+    private static final SessionAttachments<Integer> sessionLengths =
+            new SessionAttachments<Integer>();
+
+    private final int code;
+
+    MaxFragmentLengthExtension(int length) {
+        super(ExtensionType.EXT_MAX_FRAGMENT_LENGTH);
+        code = getCode(length);
+        if (code < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid max_fragment_length: " + length);
+        }
+    }
+
+    MaxFragmentLengthExtension(HandshakeInStream s, int len)
+            throws IOException {
+        super(ExtensionType.EXT_MAX_FRAGMENT_LENGTH);
+        if (len != 1) {
+            throw new SSLProtocolException(
+                    "Invalid " + type + " extension");
+        }
+        code = s.getInt8();
+    }
+
+    /*
+     * Returns the maximum plaintext length, or -1 if the peer sent a
+     * code not defined by RFC 6066.
+     */
+    int getLength() {
+        return ((code >= 1) && (code <= 4)) ? (1 << (8 + code)) : -1;
+    }
+
+    @Override
+    int length() {
+        // type, length, and the one byte code
+        return 5;
+    }
+
+    @Override
+    void send(HandshakeOutStream s) throws IOException {
+        s.putInt16(ID);
+        s.putInt16(1);
+        s.putInt8(code);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(MFL_TO_STRING_MSG, code, getLength());
+    }
+
+    /*
+     * Returns the RFC 6066 code for a maximum fragment length, or -1 if
+     * the length can't be negotiated.
+     */
+    static int getCode(int length) {
+        switch (length) {
+            case 512:
+                return 1;
+            case 1024:
+                return 2;
+            case 2048:
+                return 3;
+            case 4096:
+                return 4;
+            default:
+                return -1;
+        }
+    }
+
+    static void setSessionLength(SSLSession session, int length) {
+        if (length > 0) {
+            sessionLengths.put(session, length);
+        } else {
+            sessionLengths.remove(session);
+        }
+    }
+
+    /*
+     * Returns the length negotiated when the session was created, or 0.
+     */
+    static int getSessionLength(SSLSession session) {
+        Integer length = sessionLengths.get(session);
+        return (length != null) ? length : 0;
+    }
+
+} // END MaxFragmentLengthExtension
@@ -16,7 +16,6 @@
 
 package sun.security.ssl;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.LinkedHashSet;
 
@@ -141,12 +140,21 @@ final class NextProtocolNegotiationExtension extends HelloExtension {
                 if (extension.protocols.isEmpty()) {
                     extension.outData = EMPTY_DATA;
                 } else {
-                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    // ISO-8859-1 encodes each character as one byte, so
+                    // the size of the encoded list is known upfront.
+                    int size = 0;
                     for (String protocol : extension.protocols) {
-                        out.write(protocol.length());
-                        out.write(protocol.getBytes(ISO_8859_1));
+                        size += protocol.length() + 1;
                     }
-                    extension.outData = out.toByteArray();
+                    final byte[] outBytes = new byte[size];
+                    int pos = 0;
+                    for (String protocol : extension.protocols) {
+                        final byte[] bytes = protocol.getBytes(ISO_8859_1);
+                        outBytes[pos++] = (byte) bytes.length;
+                        System.arraycopy(bytes, 0, outBytes, pos, bytes.length);
+                        pos += bytes.length;
+                    }
+                    extension.outData = outBytes;
                 }
             }
             return extension;
@@ -21,11 +21,20 @@ import java.nio.*;
 import java.util.*;
 import java.security.*;
 
+import java.lang.reflect.Field;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
 import javax.crypto.BadPaddingException;
+import javax.security.auth.Subject;
 
 import javax.net.ssl.*;
 import javax.net.ssl.SSLEngineResult.*;
 
+import org.glassfish.grizzly.npn.Corkable;
+import org.glassfish.grizzly.npn.Resettable;
+import sun.security.action.GetIntegerAction;
+
 /**
  * Implementation of an non-blocking SSLEngine.
  *
@@ -98,7 +107,10 @@ import javax.net.ssl.SSLEngineResult.*;
  *
  * @author Brad Wetmore
  */
-final public class SSLEngineImpl extends SSLEngine {
+final public class SSLEngineImpl extends SSLEngine
+        // BEGIN GRIZZLY NPN
+        implements Corkable, Resettable {
+        // END GRIZZLY NPN
 
     //
     // Fields and global comments
@@ -321,11 +333,192 @@ final public class SSLEngineImpl extends SSLEngine {
      */
     private boolean preferLocalCipherSuites = false;
 
+    // BEGIN GRIZZLY NPN
+    /*
+     * Write corking support, see Corkable.  The corked plaintext is
+     * kept in corkBuffer (guarded by writeLock) until a full record's
+     * worth has been accumulated or the engine gets uncorked.
+     */
+    private volatile boolean corked = false;
+    private volatile ByteBuffer corkBuffer;
+
+    /*
+     * The single-element array the corked plaintext is passed to the
+     * output record in, so that writing it doesn't allocate one each
+     * time.  Guarded by writeLock; the slot is cleared after each use.
+     */
+    private final ByteBuffer[] corkedAppData = new ByteBuffer[1];
+
+    /*
+     * Dynamic record sizing state: the amount of application data
+     * written since the last handshake or idle period, and when it was
+     * last written (System.nanoTime()).  Races aren't critical here.
+     */
+    private long appDataWritten;
+    private long lastAppDataTime;
+
+    /*
+     * The max_fragment_length negotiated by the handshaker (RFC 6066),
+     * which caps the application data of outbound records.
+     */
+    private volatile int maxFragmentLength = Record.maxDataSize;
+
+    /*
+     * The application data of the wrap() call in progress if its records
+     * are limited by max_fragment_length or dynamic record sizing, see
+     * writeRecord().  Guarded by wrapLock.
+     */
+    private ByteBuffer[] limitedAppData;
+    private int limitedAppOffset;
+    private int limitedAppLength;
+
+    /*
+     * Record used by sendAlert(), created on first use.
+     */
+    private EngineOutputRecord alertRecord;
+
+    /*
+     * Upper bounds of the encrypted sizes of the records queued in the
+     * writer, in queue order (guarded by the writer).  Records queued
+     * by the JDK classes themselves (the SSLv2 error message) aren't
+     * accounted, so the sizes are dropped whenever the writer runs
+     * empty, and records without a size aren't written in batches.
+     */
+    private final Queue<Integer> queuedRecordSizes =
+            new ArrayDeque<Integer>(4);
+    // END GRIZZLY NPN
+
     /*
      * Class and subclass dynamic debugging support
      */
     private static final Debug debug = Debug.getInstance("ssl");
 
+    // BEGIN GRIZZLY NPN
+    // If enabled, wrap() encrypts as much of the supplied application
+    // data as fits into the destination buffer, possibly into several
+    // records, instead of producing at most one record per call.
+    private static final boolean multiRecordWrap = Debug.getBooleanProperty(
+            "org.glassfish.grizzly.npn.multiRecordWrap", false);
+
+    // If enabled, unwrap() decrypts all complete application data
+    // records available in the source buffer, instead of a single one.
+    private static final boolean multiRecordUnwrap = Debug.getBooleanProperty(
+            "org.glassfish.grizzly.npn.multiRecordUnwrap", false);
+
+    // Idle buffer hibernation.  Outside of handshakes, engines only hold
+    // an input record, with its record sized buffer, while unwrap() runs,
+    // borrowing it from a shared pool.  Handshakes use a record of their
+    // own until they are done.  Before a record goes into the pool, its
+    // buffer, which may still hold plaintext of the last connection, is
+    // zeroed and its engine reference cleared, and the engine borrowing
+    // it is set again; both fields are private to the JDK, so they are
+    // reached by reflection, and records are not pooled if they can't
+    // be.  Output records
+    // aren't pooled: the application data record has no buffer of its
+    // own, writing straight into the caller's netData, the handshake
+    // record goes with the handshaker and the alert record is released
+    // with the handshake state.
+    private static final boolean hibernateIdleBuffers =
+            Debug.getBooleanProperty(
+                    "org.glassfish.grizzly.npn.hibernateIdleBuffers", false);
+    private static final BlockingQueue<EngineInputRecord> inputRecordPool;
+    private static final Field inputRecordBuffer;
+    private static final Field inputRecordEngine;
+
+    static {
+        Field[] fields = null;
+        if (hibernateIdleBuffers) {
+            fields = AccessController.doPrivileged(
+                    new PrivilegedAction<Field[]>() {
+                        @Override
+                        public Field[] run() {
+                            try {
+                                Field buffer = ByteArrayInputStream.class
+                                        .getDeclaredField("buf");
+                                Field engine = EngineInputRecord.class
+                                        .getDeclaredField("engine");
+                                buffer.setAccessible(true);
+                                engine.setAccessible(true);
+                                return new Field[] { buffer, engine };
+                            } catch (ReflectiveOperationException |
+                                    RuntimeException e) {
+                                return null;
+                            }
+                        }
+                    });
+        }
+        inputRecordBuffer = (fields != null) ? fields[0] : null;
+        inputRecordEngine = (fields != null) ? fields[1] : null;
+        if (hibernateIdleBuffers) {
+            int size = AccessController.doPrivileged(new GetIntegerAction(
+                    "org.glassfish.grizzly.npn.hibernateIdleBuffers.poolSize",
+                    4 * Runtime.getRuntime().availableProcessors()));
+            inputRecordPool =
+                    new ArrayBlockingQueue<EngineInputRecord>(Math.max(1, size));
+        } else {
+            inputRecordPool = null;
+        }
+    }
+
+    // Dynamic record sizing.  After a handshake, or after being idle for
+    // recordSizingIdleTimeout, application data goes out in records of
+    // at most smallRecordSize bytes, which fit into a single TCP segment
+    // so the peer can decrypt them as soon as they arrive.  Records grow
+    // to the maximum size once recordSizingThreshold bytes were written.
+    private static final boolean dynamicRecordSizing =
+            Debug.getBooleanProperty(
+                    "org.glassfish.grizzly.npn.dynamicRecordSizing", false);
+    private static final int smallRecordSize;
+    private static final long recordSizingThreshold;
+    private static final long recordSizingIdleTimeout;   // nanoseconds
+
+    static {
+        int size = AccessController.doPrivileged(new GetIntegerAction(
+                "org.glassfish.grizzly.npn.dynamicRecordSizing.smallRecordSize",
+                1400));
+        smallRecordSize = Math.max(1, Math.min(size, Record.maxDataSize));
+        recordSizingThreshold = AccessController.doPrivileged(
+                new GetIntegerAction(
+                "org.glassfish.grizzly.npn.dynamicRecordSizing.threshold",
+                1024 * 1024));
+        recordSizingIdleTimeout = 1000000L * AccessController.doPrivileged(
+                new GetIntegerAction(
+                "org.glassfish.grizzly.npn.dynamicRecordSizing.idleTimeout",
+                1000));
+    }
+
+    /*
+     * SSLEngineResults are immutable, so the ones which don't report any
+     * bytes consumed or produced (BUFFER_UNDERFLOW, NEED_WRAP, NEED_TASK
+     * and so on) are shared by all engines, indexed by status and
+     * handshake status.
+     */
+    private static final SSLEngineResult[][] emptyResults;
+
+    static {
+        Status[] statuses = Status.values();
+        HandshakeStatus[] hsStatuses = HandshakeStatus.values();
+        emptyResults =
+                new SSLEngineResult[statuses.length][hsStatuses.length];
+        for (Status status : statuses) {
+            for (HandshakeStatus hsStatus : hsStatuses) {
+                emptyResults[status.ordinal()][hsStatus.ordinal()] =
+                        new SSLEngineResult(status, hsStatus, 0, 0);
+            }
+        }
+    }
+
+    private static SSLEngineResult newResult(Status status,
+            HandshakeStatus hsStatus, int bytesConsumed, int bytesProduced) {
+        if ((bytesConsumed == 0) && (bytesProduced == 0)) {
+            return emptyResults[status.ordinal()][hsStatus.ordinal()];
+        }
+
+        return new SSLEngineResult(
+                status, hsStatus, bytesConsumed, bytesProduced);
+    }
+    // END GRIZZLY NPN
+
     //
     // Initialization/Constructors
     //
@@ -404,7 +597,9 @@ final public class SSLEngineImpl extends SSLEngine {
          * run tasks in, and for determining which credentials
          * to use for Subject based (JAAS) decisions
          */
-        acc = AccessController.getContext();
+        // BEGIN GRIZZLY NPN
+        acc = captureAcc();
+        // END GRIZZLY NPN
 
         /*
          * All outbound application data goes through this OutputRecord,
@@ -465,6 +660,14 @@ final public class SSLEngineImpl extends SSLEngine {
         if (connectionState == cs_START) {
             connectionState = cs_HANDSHAKE;
         } else { // cs_DATA
+            // BEGIN GRIZZLY NPN
+            // corked data must not be overtaken by the new handshake
+            flushCorkedData();
+            // the handshaker installs its hash into the input record
+            if (hibernateIdleBuffers) {
+                wakeInputRecord();
+            }
+            // END GRIZZLY NPN
             connectionState = cs_RENEGOTIATE;
         }
         if (roleIsServer) {
@@ -554,6 +757,22 @@ final public class SSLEngineImpl extends SSLEngine {
         return acc;
     }
 
+    // BEGIN GRIZZLY NPN
+    /*
+     * The context is only kept if a SecurityManager may restrict it, or
+     * a JAAS Subject is bound to it, whose credentials Kerberos suites
+     * and the key and trust managers may look up; Subject.doAs() works
+     * without a SecurityManager.  Otherwise getAcc() returns null, tasks
+     * are run directly instead of through doPrivileged(), and engines
+     * don't keep the contexts of their creators reachable.
+     */
+    private static AccessControlContext captureAcc() {
+        AccessControlContext acc = AccessController.getContext();
+        return ((System.getSecurityManager() != null) ||
+                (Subject.getSubject(acc) != null)) ? acc : null;
+    }
+    // END GRIZZLY NPN
+
     /*
      * Is a handshake currently underway?
      */
@@ -637,6 +856,11 @@ final public class SSLEngineImpl extends SSLEngine {
 
         // reset the flag of the first application record
         isFirstAppOutputRecord = true;
+
+        // BEGIN GRIZZLY NPN
+        // start over with small records using the new keys
+        appDataWritten = 0;
+        // END GRIZZLY NPN
     }
 
     /*
@@ -769,7 +993,23 @@ final public class SSLEngineImpl extends SSLEngine {
 
         try {
             synchronized (unwrapLock) {
-                return readNetRecord(ea);
+                // BEGIN GRIZZLY NPN
+                if (hibernateIdleBuffers) {
+                    wakeInputRecord();
+                }
+                try {
+                    SSLEngineResult result = readNetRecord(ea);
+                    if (multiRecordUnwrap) {
+                        result = readMoreAppRecords(ea, result,
+                                appData, offset, length);
+                    }
+                    return result;
+                } finally {
+                    if (hibernateIdleBuffers) {
+                        hibernateInputRecord();
+                    }
+                }
+                // END GRIZZLY NPN
             }
         } catch (Exception e) {
             /*
@@ -807,7 +1047,9 @@ final public class SSLEngineImpl extends SSLEngine {
          * Check if we are closing/closed.
          */
         if (isInboundDone()) {
-            return new SSLEngineResult(Status.CLOSED, getHSStatus(null), 0, 0);
+            // BEGIN GRIZZLY NPN
+            return newResult(Status.CLOSED, getHSStatus(null), 0, 0);
+            // END GRIZZLY NPN
         }
 
         /*
@@ -826,7 +1068,9 @@ final public class SSLEngineImpl extends SSLEngine {
                 hsStatus = getHSStatus(null);
 
                 if (hsStatus == HandshakeStatus.NEED_WRAP) {
-                    return new SSLEngineResult(Status.OK, hsStatus, 0, 0);
+                    // BEGIN GRIZZLY NPN
+                    return newResult(Status.OK, hsStatus, 0, 0);
+                    // END GRIZZLY NPN
                 }
             }
         }
@@ -848,8 +1092,10 @@ final public class SSLEngineImpl extends SSLEngine {
          * message which would change the ciphers.
          */
         if (hsStatus == HandshakeStatus.NEED_TASK) {
-            return new SSLEngineResult(
+            // BEGIN GRIZZLY NPN
+            return newResult(
                     Status.OK, hsStatus, 0, 0);
+            // END GRIZZLY NPN
         }
 
         /*
@@ -879,13 +1125,17 @@ final public class SSLEngineImpl extends SSLEngine {
          * free space requirement until after the initial handshaking.
          */
         if ((packetLen - Record.headerSize) > ea.getAppRemaining()) {
-            return new SSLEngineResult(Status.BUFFER_OVERFLOW, hsStatus, 0, 0);
+            // BEGIN GRIZZLY NPN
+            return newResult(Status.BUFFER_OVERFLOW, hsStatus, 0, 0);
+            // END GRIZZLY NPN
         }
 
         // check for UNDERFLOW.
         if ((packetLen == -1) || (ea.netData.remaining() < packetLen)) {
-            return new SSLEngineResult(
+            // BEGIN GRIZZLY NPN
+            return newResult(
                     Status.BUFFER_UNDERFLOW, hsStatus, 0, 0);
+            // END GRIZZLY NPN
         }
 
         /*
@@ -915,10 +1165,165 @@ final public class SSLEngineImpl extends SSLEngine {
         status = (isInboundDone() ? Status.CLOSED : Status.OK);
         hsStatus = getHSStatus(hsStatus);
 
-        return new SSLEngineResult(status, hsStatus,
+        // BEGIN GRIZZLY NPN
+        return newResult(status, hsStatus,
+                ea.deltaNet(), ea.deltaApp());
+        // END GRIZZLY NPN
+    }
+
+    // BEGIN GRIZZLY NPN
+    /*
+     * Drops what the finished handshake left reachable from the engine
+     * once the handshaker itself is gone: the handshake hash, holding
+     * the digests and buffered messages, is still referenced by the
+     * input record, the session under construction by the engine if
+     * the handshaker was invalidated, and the alert record if an alert
+     * was sent.  The next handshaker installs a new hash when it is
+     * activated, and sendAlert() recreates the record on demand.
+     *
+     * The handshake messages, their extensions and the handshake output
+     * record go with the handshaker.  The verify data is kept for secure
+     * renegotiation, and the input record's buffer, which is private to
+     * the JDK and still needed for alerts, is only released by
+     * hibernation.
+     *
+     * Caller must hold this.
+     */
+    private void releaseHandshakeState() {
+        inputRecord.setHandshakeHash(null);
+        handshakeSession = null;
+        alertRecord = null;
+    }
+
+    /*
+     * Makes sure there's an input record, borrowing one from the pool
+     * if the engine has been hibernating.
+     */
+    private synchronized void wakeInputRecord() {
+        if (inputRecord == null) {
+            EngineInputRecord r = inputRecordPool.poll();
+            if ((r != null) && setInputRecordEngine(r, this)) {
+                inputRecord = r;
+            } else {
+                inputRecord = new EngineInputRecord(this);
+            }
+        }
+    }
+
+    /*
+     * Returns the input record to the pool unless a handshake needs it.
+     * Partial records stay in the caller's netData, so there's nothing
+     * pending in the record between unwrap() calls.  Nothing of this
+     * engine goes into the pool: the record's buffer is zeroed, and its
+     * handshake hash and engine references are cleared.
+     *
+     * Caller must hold unwrapLock, so the record isn't in use.
+     */
+    private synchronized void hibernateInputRecord() {
+        if ((inputRecord != null) && (handshaker == null) &&
+                (connectionState >= cs_DATA)) {
+            if (!clearInputRecord(inputRecord)) {
+                return;
+            }
+            inputRecord.setHandshakeHash(null);
+            inputRecord.setHelloVersion(ProtocolVersion.DEFAULT_HELLO);
+            inputRecordPool.offer(inputRecord);
+            inputRecord = null;
+        }
+    }
+
+    /*
+     * Zeroes the buffer of the input record and clears its engine
+     * reference.  Returns false if the record can't be cleared, and
+     * mustn't be pooled.
+     */
+    private static boolean clearInputRecord(EngineInputRecord r) {
+        if (inputRecordBuffer == null) {
+            return false;
+        }
+        try {
+            Arrays.fill((byte[]) inputRecordBuffer.get(r), (byte) 0);
+        } catch (IllegalAccessException e) {
+            return false;
+        }
+        return setInputRecordEngine(r, null);
+    }
+
+    private static boolean setInputRecordEngine(EngineInputRecord r,
+            SSLEngineImpl engine) {
+        if (inputRecordEngine == null) {
+            return false;
+        }
+        try {
+            inputRecordEngine.set(r, engine);
+            return true;
+        } catch (IllegalAccessException e) {
+            return false;
+        }
+    }
+
+    /*
+     * After a successful unwrap() of application data, keep decrypting
+     * the complete application data records left in netData for as
+     * long as they fit into the remaining appData space.  Handshake,
+     * alert and change cipher spec records are left for the next
+     * unwrap() call, which processes them one at a time as before.
+     *
+     * Caller must hold unwrapLock.
+     */
+    private SSLEngineResult readMoreAppRecords(EngineArgs ea,
+            SSLEngineResult result, ByteBuffer[] appData,
+            int offset, int length) throws IOException {
+
+        HandshakeStatus hsStatus = result.getHandshakeStatus();
+        if ((result.getStatus() != Status.OK) ||
+                (hsStatus != HandshakeStatus.NOT_HANDSHAKING)) {
+            return result;
+        }
+
+        ByteBuffer netData = ea.netData;
+        int count = 0;
+        while ((hsStatus == HandshakeStatus.NOT_HANDSHAKING) &&
+                !isInboundDone() &&
+                (netData.remaining() >= Record.headerSize) &&
+                (netData.get(netData.position()) ==
+                        Record.ct_application_data)) {
+
+            int packetLen = inputRecord.bytesInCompletePacket(netData);
+            if ((packetLen == -1) || (netData.remaining() < packetLen) ||
+                    (packetLen > sess.getPacketBufferSize()) ||
+                    ((packetLen - Record.headerSize) >
+                            getRemaining(appData, offset, length))) {
+                break;
+            }
+
+            hsStatus = readRecord(ea);
+            count++;
+        }
+
+        if (count == 0) {
+            return result;
+        }
+
+        Status status = (isInboundDone() ? Status.CLOSED : Status.OK);
+        return newResult(status, getHSStatus(hsStatus),
                 ea.deltaNet(), ea.deltaApp());
     }
 
+    /*
+     * Returns the total number of bytes remaining in the specified
+     * subsequence of buffers.
+     */
+    private static int getRemaining(ByteBuffer[] bufs,
+            int offset, int length) {
+        int remaining = 0;
+        for (int i = offset; i < offset + length; i++) {
+            remaining += bufs[i].remaining();
+        }
+        return remaining;
+    }
+    // END GRIZZLY NPN
+
     /*
      * Actually do the read record processing.
      *
@@ -1024,6 +1429,9 @@ final public class SSLEngineImpl extends SSLEngine {
 
                         if (handshaker.invalidated) {
                             handshaker = null;
+                            // BEGIN GRIZZLY NPN
+                            releaseHandshakeState();
+                            // END GRIZZLY NPN
                             receivedCCS = false;
                             // if state is cs_RENEGOTIATE, revert it to cs_DATA
                             if (connectionState == cs_RENEGOTIATE) {
@@ -1042,6 +1450,9 @@ final public class SSLEngineImpl extends SSLEngine {
                                 hsStatus = HandshakeStatus.FINISHED;
                             }
                             handshaker = null;
+                            // BEGIN GRIZZLY NPN
+                            releaseHandshakeState();
+                            // END GRIZZLY NPN
                             connectionState = cs_DATA;
                             receivedCCS = false;
 
@@ -1072,7 +1483,13 @@ final public class SSLEngineImpl extends SSLEngine {
                      * closed.
                      */
                         if (!inboundDone) {
-                            ea.scatter(decryptedBB.slice());
+                            // BEGIN GRIZZLY NPN
+                            // The record has been decrypted in place in
+                            // netData, decryptedBB is a view of it which
+                            // isn't used afterwards, so there's no need
+                            // for another slice: this is the only copy.
+                            ea.scatter(decryptedBB);
+                            // END GRIZZLY NPN
                         }
                         break;
 
@@ -1166,21 +1583,62 @@ final public class SSLEngineImpl extends SSLEngine {
     public SSLEngineResult wrap(ByteBuffer [] appData,
                                 int offset, int length, ByteBuffer netData) throws SSLException {
 
-        EngineArgs ea = new EngineArgs(appData, offset, length, netData);
+        // BEGIN GRIZZLY NPN
+        // While records are limited by max_fragment_length or dynamic
+        // record sizing, the application data which doesn't fit into a
+        // record is hidden from EngineOutputRecord while each record is
+        // written, see writeRecord().  A split payload has its limits
+        // reset by EngineOutputRecord between both records though, so
+        // then the data is hidden from EngineArgs for the whole call,
+        // which writes a single record.  Corked data is buffered by
+        // records of the right size already.
+        boolean limitRecords = false;
+        int[] appLimits = null;
+        if (!corked) {
+            int appDataLimit = getAppDataLimit();
+            if (appDataLimit < Record.maxDataSize) {
+                if (needToSplitPayload(writeCipher, protocolVersion)) {
+                    appLimits = limitAppData(appData, offset, length,
+                            appDataLimit);
+                } else {
+                    limitRecords = true;
+                }
+            }
+        }
 
-        /*
-         * We can be smarter about using smaller buffer sizes later.
-         * For now, force it to be large enough to handle any
-         * valid SSL/TLS record.
-         */
-        if (netData.remaining() < EngineOutputRecord.maxRecordSize) {
-            return new SSLEngineResult(
-                    Status.BUFFER_OVERFLOW, getHSStatus(null), 0, 0);
+        EngineArgs ea;
+        try {
+            ea = new EngineArgs(appData, offset, length, netData);
+        } catch (RuntimeException e) {
+            restoreAppData(appData, offset, length, appLimits);
+            throw e;
         }
 
+        // The netData free space requirement is checked in
+        // writeAppRecord(), once we know what the next record is.
+        // END GRIZZLY NPN
+
         try {
             synchronized (wrapLock) {
-                return writeAppRecord(ea);
+                // BEGIN GRIZZLY NPN
+                if (limitRecords) {
+                    limitedAppData = appData;
+                    limitedAppOffset = offset;
+                    limitedAppLength = length;
+                }
+                try {
+                    if (corked || (corkBuffer != null)) {
+                        SSLEngineResult result = writeCorkedAppData(ea,
+                                appData, offset, length);
+                        if (result != null) {
+                            return result;
+                        }
+                    }
+                    return writeAppRecord(ea);
+                } finally {
+                    limitedAppData = null;
+                }
+                // END GRIZZLY NPN
             }
         } catch (Exception e) {
             ea.resetPos();
@@ -1193,9 +1651,102 @@ final public class SSLEngineImpl extends SSLEngine {
              * Just in case something didn't reset limits properly.
              */
             ea.resetLim();
+            // BEGIN GRIZZLY NPN
+            restoreAppData(appData, offset, length, appLimits);
+            // END GRIZZLY NPN
+        }
+    }
+
+    // BEGIN GRIZZLY NPN
+    /*
+     * Returns the maximum amount of application data the next record
+     * should carry according to max_fragment_length and the dynamic
+     * record sizing policy.
+     */
+    private int getAppDataLimit() {
+        int limit = maxFragmentLength;
+        if (dynamicRecordSizing) {
+            if ((System.nanoTime() - lastAppDataTime) >
+                    recordSizingIdleTimeout) {
+                appDataWritten = 0;
+            }
+            if (appDataWritten < recordSizingThreshold) {
+                limit = Math.min(limit, smallRecordSize);
+            }
         }
+
+        return limit;
     }
 
+    /*
+     * Called by the handshaker once max_fragment_length has been
+     * negotiated, 0 meaning no limit.
+     */
+    void setMaxFragmentLength(int length) {
+        maxFragmentLength = (length > 0) ?
+                Math.min(length, Record.maxDataSize) : Record.maxDataSize;
+    }
+
+    /*
+     * Returns the algorithm constraints of the SSLParameters, or null.
+     */
+    synchronized AlgorithmConstraints getUserAlgorithmConstraints() {
+        return algorithmConstraints;
+    }
+
+    private void appDataWritten(int amount) {
+        if (amount > 0) {
+            appDataWritten += amount;
+            lastAppDataTime = System.nanoTime();
+        }
+    }
+
+    /*
+     * Lowers the limits of the specified subsequence of buffers so that
+     * at most maxAmount bytes remain.  Returns the original limits, or
+     * null if nothing had to be changed (or the arguments are invalid,
+     * which EngineArgs will report).
+     */
+    private static int[] limitAppData(ByteBuffer[] appData,
+            int offset, int length, int maxAmount) {
+        if ((appData == null) || (offset < 0) || (length < 0) ||
+                (offset > appData.length - length)) {
+            return null;
+        }
+
+        int remaining = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (appData[i] == null) {
+                return null;
+            }
+            remaining += appData[i].remaining();
+        }
+        if (remaining <= maxAmount) {
+            return null;
+        }
+
+        int[] limits = new int[length];
+        for (int i = 0; i < length; i++) {
+            ByteBuffer bb = appData[offset + i];
+            limits[i] = bb.limit();
+            int amount = Math.min(bb.remaining(), maxAmount);
+            bb.limit(bb.position() + amount);
+            maxAmount -= amount;
+        }
+
+        return limits;
+    }
+
+    private static void restoreAppData(ByteBuffer[] appData,
+            int offset, int length, int[] limits) {
+        if (limits != null) {
+            for (int i = 0; i < length; i++) {
+                appData[offset + i].limit(limits[i]);
+            }
+        }
+    }
+    // END GRIZZLY NPN
+
     /*
      * Makes additional checks for unwrap, but this time more
      * specific to this packet and the current state of the machine.
@@ -1214,7 +1765,9 @@ final public class SSLEngineImpl extends SSLEngine {
          * short circuit if we're closed/closing.
          */
         if (writer.isOutboundDone()) {
-            return new SSLEngineResult(Status.CLOSED, getHSStatus(null), 0, 0);
+            // BEGIN GRIZZLY NPN
+            return newResult(Status.CLOSED, getHSStatus(null), 0, 0);
+            // END GRIZZLY NPN
         }
 
         /*
@@ -1233,7 +1786,9 @@ final public class SSLEngineImpl extends SSLEngine {
                 hsStatus = getHSStatus(null);
 
                 if (hsStatus == HandshakeStatus.NEED_UNWRAP) {
-                    return new SSLEngineResult(Status.OK, hsStatus, 0, 0);
+                    // BEGIN GRIZZLY NPN
+                    return newResult(Status.OK, hsStatus, 0, 0);
+                    // END GRIZZLY NPN
                 }
             }
         }
@@ -1255,8 +1810,10 @@ final public class SSLEngineImpl extends SSLEngine {
          * message which would change the ciphers.
          */
         if (hsStatus == HandshakeStatus.NEED_TASK) {
-            return new SSLEngineResult(
+            // BEGIN GRIZZLY NPN
+            return newResult(
                     Status.OK, hsStatus, 0, 0);
+            // END GRIZZLY NPN
         }
 
         /*
@@ -1265,7 +1822,19 @@ final public class SSLEngineImpl extends SSLEngine {
          */
         try {
             synchronized (writeLock) {
+                // BEGIN GRIZZLY NPN
+                if (ea.netData.remaining() < getWrapSize(ea)) {
+                    return newResult(
+                            Status.BUFFER_OVERFLOW, hsStatus, 0, 0);
+                }
+                // END GRIZZLY NPN
                 hsStatus = writeRecord(outputRecord, ea);
+                // BEGIN GRIZZLY NPN
+                hsStatus = writeQueuedRecords(ea, hsStatus);
+                if (multiRecordWrap) {
+                    hsStatus = writeMoreAppRecords(ea, hsStatus);
+                }
+                // END GRIZZLY NPN
             }
         } catch (SSLException e) {
             throw e;
@@ -1282,8 +1851,10 @@ final public class SSLEngineImpl extends SSLEngine {
         status = (isOutboundDone() ? Status.CLOSED : Status.OK);
         hsStatus = getHSStatus(hsStatus);
 
-        return new SSLEngineResult(status, hsStatus,
+        // BEGIN GRIZZLY NPN
+        return newResult(status, hsStatus,
                 ea.deltaApp(), ea.deltaNet());
+        // END GRIZZLY NPN
     }
 
     /*
@@ -1293,8 +1864,37 @@ final public class SSLEngineImpl extends SSLEngine {
                                         EngineArgs ea) throws IOException {
 
         // eventually compress as well.
-        HandshakeStatus hsStatus =
-                writer.writeRecord(eor, ea, writeAuthenticator, writeCipher);
+        // BEGIN GRIZZLY NPN
+        // hide the application data which doesn't fit into this record
+        int[] appLimits = null;
+        if (limitedAppData != null) {
+            appLimits = limitAppData(limitedAppData, limitedAppOffset,
+                    limitedAppLength, getAppDataLimit());
+        }
+        int appRemaining = ea.getAppRemaining();
+
+        // keep queuedRecordSizes in step with the writer's queue
+        HandshakeStatus hsStatus;
+        try {
+            synchronized (writer) {
+                boolean queued = writer.hasOutboundData();
+                hsStatus = writer.writeRecord(
+                        eor, ea, writeAuthenticator, writeCipher);
+                if (!writer.hasOutboundData()) {
+                    queuedRecordSizes.clear();
+                } else if (queued) {
+                    queuedRecordSizes.poll();
+                }
+            }
+        } finally {
+            restoreAppData(limitedAppData, limitedAppOffset,
+                    limitedAppLength, appLimits);
+        }
+
+        if (dynamicRecordSizing) {
+            appDataWritten(appRemaining - ea.getAppRemaining());
+        }
+        // END GRIZZLY NPN
 
         /*
          * We only need to check the sequence number state for
@@ -1327,6 +1927,331 @@ final public class SSLEngineImpl extends SSLEngine {
         return hsStatus;
     }
 
+    // BEGIN GRIZZLY NPN
+    /*
+     * wrap() while corked, or with corked data still pending.
+     *
+     * Returns null if the regular write path should be used for the
+     * (remaining) application data: corking only applies to plain
+     * application data traffic, anything else flushes it elsewhere
+     * (see initHandshaker() and closeOutboundInternal()).
+     *
+     * Caller must hold wrapLock.
+     */
+    private SSLEngineResult writeCorkedAppData(EngineArgs ea,
+            ByteBuffer[] appData, int offset, int length) throws IOException {
+
+        // Take "this" first, so no handshake data can be queued while
+        // we write, and never acquire it after writeLock.
+        synchronized (this) {
+            if ((connectionState != cs_DATA) ||
+                    (getHSStatus(null) != HandshakeStatus.NOT_HANDSHAKING)) {
+                return null;
+            }
+
+            synchronized (writeLock) {
+                if (!corked) {
+                    // Write out what is left from the corked period
+                    // before any new data.  Once written, the record
+                    // has to be reported, so if the next record doesn't
+                    // fit as well, only this one is written by this call.
+                    if (ea.netData.remaining() < getCorkedWrapSize()) {
+                        return newResult(Status.BUFFER_OVERFLOW,
+                                HandshakeStatus.NOT_HANDSHAKING, 0, 0);
+                    }
+                    writeCorkedRecord(ea);
+                    corkBuffer = null;
+                    if (ea.netData.remaining() < getWrapSize(ea)) {
+                        return newResult(
+                                (isOutboundDone() ? Status.CLOSED : Status.OK),
+                                getHSStatus(null), 0, ea.deltaNet());
+                    }
+                    return null;
+                }
+
+                if (corkBuffer == null) {
+                    corkBuffer = ByteBuffer.allocate(maxFragmentLength);
+                }
+
+                // A full record left over from a previous call goes first.
+                if (!corkBuffer.hasRemaining() && !writeCorkedRecord(ea)) {
+                    return newResult(Status.BUFFER_OVERFLOW,
+                            HandshakeStatus.NOT_HANDSHAKING, 0, 0);
+                }
+
+                // Accumulate, writing out each record as it fills up.
+                while (getRemaining(appData, offset, length) > 0) {
+                    gather(appData, offset, length, corkBuffer);
+                    if (corkBuffer.hasRemaining() || !writeCorkedRecord(ea)) {
+                        break;
+                    }
+                }
+
+                // nothing buffered, don't keep the buffer while idle
+                if (hibernateIdleBuffers && (corkBuffer.position() == 0)) {
+                    corkBuffer = null;
+                }
+            }
+
+            return newResult(
+                    (isOutboundDone() ? Status.CLOSED : Status.OK),
+                    getHSStatus(null), ea.deltaApp(), ea.deltaNet());
+        }
+    }
+
+    /*
+     * Returns the free netData space writeCorkedRecord() needs.
+     *
+     * Caller must hold writeLock.
+     */
+    private int getCorkedWrapSize() {
+        ByteBuffer buffered = corkBuffer;
+        if ((buffered == null) || (buffered.position() == 0) ||
+                (writeAuthenticator == MAC.NULL)) {
+            return 0;
+        }
+
+        int size = 0;
+        if (needToSplitPayload(writeCipher, protocolVersion)) {
+            size += getRecordSize(1);
+        }
+
+        return size + getRecordSize(buffered.position());
+    }
+
+    /*
+     * Encrypts the corked plaintext into ea.netData.  Returns false
+     * if there isn't enough room for the record.
+     *
+     * Caller must hold writeLock.
+     */
+    private boolean writeCorkedRecord(EngineArgs ea) throws IOException {
+        ByteBuffer buffered = corkBuffer;
+        if ((buffered == null) || (buffered.position() == 0)) {
+            return true;
+        }
+
+        buffered.flip();
+        corkedAppData[0] = buffered;
+        try {
+            EngineArgs corkedArgs =
+                    new EngineArgs(corkedAppData, 0, 1, ea.netData);
+            try {
+                if (ea.netData.remaining() < getWrapSize(corkedArgs)) {
+                    return false;
+                }
+                writeRecord(outputRecord, corkedArgs);
+            } finally {
+                corkedArgs.resetLim();
+            }
+        } finally {
+            corkedAppData[0] = null;
+            buffered.compact();
+        }
+
+        return true;
+    }
+
+    /*
+     * Queues the corked plaintext as application data record(s), so
+     * that it goes out ahead of a close_notify alert or the messages
+     * of a renegotiation.
+     *
+     * Caller must have synchronized with "this".
+     */
+    private void flushCorkedData() {
+        synchronized (writeLock) {
+            ByteBuffer buffered = corkBuffer;
+            corkBuffer = null;
+            if ((buffered == null) || (buffered.position() == 0) ||
+                    (writeAuthenticator == MAC.NULL)) {
+                return;
+            }
+
+            buffered.flip();
+            corkedAppData[0] = buffered;
+            try {
+                while (buffered.hasRemaining()) {
+                    ByteBuffer netData = ByteBuffer.allocate(
+                            getRecordSize(1) +
+                            getRecordSize(buffered.remaining()));
+                    EngineArgs corkedArgs = new EngineArgs(
+                            corkedAppData, 0, 1, netData);
+                    outputRecord.write(
+                            corkedArgs, writeAuthenticator, writeCipher);
+                    corkedArgs.resetLim();
+                    if (corkedArgs.deltaApp() == 0) {
+                        break;
+                    }
+
+                    netData.flip();
+                    int size = netData.remaining();
+                    synchronized (writer) {
+                        writer.putOutboundDataSync(netData);
+                        queuedRecordSizes.add(size);
+                    }
+                }
+            } catch (IOException e) {
+                if (debug != null && Debug.isOn("ssl")) {
+                    System.out.println(Thread.currentThread().getName() +
+                            ", Exception flushing corked data: " + e);
+                }
+            } finally {
+                corkedAppData[0] = null;
+            }
+        }
+    }
+
+    /*
+     * Copies as much of the specified subsequence of buffers as fits
+     * into dst.
+     */
+    private static void gather(ByteBuffer[] bufs, int offset, int length,
+            ByteBuffer dst) {
+        for (int i = offset; (i < offset + length) && dst.hasRemaining();
+                i++) {
+            ByteBuffer src = bufs[i];
+            int amount = Math.min(src.remaining(), dst.remaining());
+            if (amount > 0) {
+                int limit = src.limit();
+                src.limit(src.position() + amount);
+                dst.put(src);
+                src.limit(limit);
+            }
+        }
+    }
+
+    /*
+     * After a queued record has been written, keep writing the queued
+     * records which are known to fit into netData, so that a whole
+     * flight of handshake messages (like ServerHello, ChangeCipherSpec
+     * and Finished when resuming) goes out in a single wrap() call.
+     * Stops once the handshake is reported as finished.
+     *
+     * Caller must hold writeLock.
+     */
+    private HandshakeStatus writeQueuedRecords(EngineArgs ea,
+            HandshakeStatus hsStatus) throws IOException {
+        while ((hsStatus != HandshakeStatus.FINISHED) &&
+                writer.hasOutboundData()) {
+            Integer size;
+            synchronized (writer) {
+                size = queuedRecordSizes.peek();
+            }
+            if ((size == null) || (ea.netData.remaining() < size)) {
+                break;
+            }
+            hsStatus = writeRecord(outputRecord, ea);
+        }
+
+        return hsStatus;
+    }
+
+    /*
+     * Keep encrypting the remaining application data into additional
+     * records for as long as they fit into netData, so bulk transfers
+     * need a single wrap() call per network buffer rather than one per
+     * record.  We stop as soon as anything other than application data
+     * needs attention (handshake data, renegotiation, closure).
+     *
+     * Caller must hold writeLock.
+     */
+    private HandshakeStatus writeMoreAppRecords(EngineArgs ea,
+            HandshakeStatus hsStatus) throws IOException {
+
+        while ((hsStatus == HandshakeStatus.NOT_HANDSHAKING) &&
+                (ea.getAppRemaining() > 0) && !writer.isOutboundDone()) {
+            // a split payload can't be limited per record, see wrap()
+            if ((limitedAppData != null) &&
+                    needToSplitPayload(writeCipher, protocolVersion)) {
+                break;
+            }
+
+            int size = getWrapSize(ea);
+            if ((size == 0) || (ea.netData.remaining() < size)) {
+                break;
+            }
+
+            // restore the limits EngineArgs.gather() left behind
+            ea.resetLim();
+            hsStatus = writeRecord(outputRecord, ea);
+        }
+
+        return hsStatus;
+    }
+
+    /*
+     * Upper bounds of the per-record expansion which can't be derived
+     * from the CipherBox directly: the largest CBC block size used by
+     * the supported suites (AES), and the GCM authentication tag size.
+     */
+    private static final int maxCipherBlockSize = 16;
+    private static final int aeadTagSize = 16;
+
+    /*
+     * Returns the free netData space the next wrap() needs.
+     *
+     * Queued handshake, change cipher spec and alert records were
+     * produced elsewhere, so we don't know their size and still ask
+     * for room for any valid SSL/TLS record.  Otherwise only the
+     * application data we are about to consume has to fit, which lets
+     * callers use network buffers sized to their actual traffic.
+     *
+     * Caller must hold writeLock.
+     */
+    private int getWrapSize(EngineArgs ea) {
+        if (writer.hasOutboundData()) {
+            return EngineOutputRecord.maxRecordSize;
+        }
+
+        // EngineOutputRecord won't write application data until the
+        // write MAC has been set.
+        int appRemaining = ea.getAppRemaining();
+        if ((appRemaining == 0) || (writeAuthenticator == MAC.NULL)) {
+            return 0;
+        }
+
+        int size = 0;
+        if (needToSplitPayload(writeCipher, protocolVersion)) {
+            size += getRecordSize(1);
+        }
+
+        int appDataLimit = (limitedAppData != null) ?
+                getAppDataLimit() : Record.maxDataSize;
+        return size + getRecordSize(Math.min(appRemaining, appDataLimit));
+    }
+
+    /*
+     * Returns the maximum encrypted size of a record carrying
+     * fragmentSize bytes of plaintext with the current write cipher.
+     */
+    private int getRecordSize(int fragmentSize) {
+        int size = Record.headerSize +
+                writeCipher.getExplicitNonceSize() + fragmentSize;
+        if (writeAuthenticator instanceof MAC) {
+            size += ((MAC)writeAuthenticator).MAClen();
+            if (writeCipher.isCBCMode()) {
+                size += maxCipherBlockSize;     // padding
+            }
+        } else {
+            size += aeadTagSize;
+        }
+
+        return size;
+    }
+
+    /*
+     * Returns whether the record may hold a client's initial ClientHello
+     * which is sent in the SSLv2 format.
+     */
+    private boolean mayConvertToV2Hello(EngineOutputRecord eor) {
+        return !roleIsServer && (eor.contentType() == Record.ct_handshake) &&
+                (writeAuthenticator == MAC.NULL) &&
+                (enabledProtocols.helloVersion.v ==
+                        ProtocolVersion.SSL20Hello.v);
+    }
+    // END GRIZZLY NPN
+
     /*
      * Need to split the payload except the following cases:
      *
@@ -1350,7 +2275,21 @@ final public class SSLEngineImpl extends SSLEngine {
      */
     void writeRecord(EngineOutputRecord eor) throws IOException {
         // eventually compress as well.
-        writer.writeRecord(eor, writeAuthenticator, writeCipher);
+        // BEGIN GRIZZLY NPN
+        // Remember how large the record may get once encrypted, so that
+        // wrap() knows whether it fits without dequeuing it.  Empty
+        // records aren't queued.  A ClientHello may be converted to the
+        // SSLv2 format on its way, so its size isn't known.
+        synchronized (writer) {
+            int fragmentSize = eor.size() - Record.headerPlusMaxIVSize;
+            writer.writeRecord(eor, writeAuthenticator, writeCipher);
+            if (fragmentSize > 0) {
+                queuedRecordSizes.add(mayConvertToV2Hello(eor) ?
+                        EngineOutputRecord.maxRecordSize :
+                        getRecordSize(fragmentSize));
+            }
+        }
+        // END GRIZZLY NPN
 
         /*
          * Check the sequence number state
@@ -1473,6 +2412,9 @@ final public class SSLEngineImpl extends SSLEngine {
             // case cs_DATA:
             // case cs_RENEGOTIATE:
             default:
+                // BEGIN GRIZZLY NPN
+                flushCorkedData();
+                // END GRIZZLY NPN
                 warning(Alerts.alert_close_notify);
                 writer.closeOutbound();
                 break;
@@ -1497,6 +2439,120 @@ final public class SSLEngineImpl extends SSLEngine {
         closeOutboundInternal();
     }
 
+    // BEGIN GRIZZLY NPN
+    /**
+     * Starts coalescing the application data of subsequent wrap()
+     * calls into full records.
+     */
+    @Override
+    synchronized public void cork() {
+        corked = true;
+    }
+
+    /**
+     * Stops coalescing application data.  Whatever is still buffered
+     * is written by the next wrap() call.
+     */
+    @Override
+    synchronized public void uncork() {
+        corked = false;
+    }
+
+    @Override
+    public boolean isCorked() {
+        return corked;
+    }
+
+    /**
+     * Returns a closed engine to the state of a newly created one, so
+     * that it can be used for another connection with the same peer.
+     * The records, locks and alert record are kept, everything related
+     * to the previous connection, its session and its configuration is
+     * discarded.  The session itself stays in the session cache.
+     */
+    @Override
+    public void reset() {
+        synchronized (wrapLock) {
+            synchronized (unwrapLock) {
+                synchronized (this) {
+                    if ((connectionState != cs_START) &&
+                            (!isInboundDone() || !isOutboundDone())) {
+                        throw new IllegalStateException(
+                                "Engine has not been closed");
+                    }
+
+                    if ((debug != null) && Debug.isOn("ssl")) {
+                        System.out.println(
+                                Thread.currentThread().getName() +
+                                ", called reset()");
+                    }
+
+                    // connection state
+                    sess = SSLSessionImpl.nullSession;
+                    handshakeSession = null;
+                    handshaker = null;
+                    connectionState = cs_START;
+                    inboundDone = false;
+                    receivedCCS = false;
+                    expectingFinished = false;
+                    recvCN = false;
+                    closeReason = null;
+                    isFirstAppOutputRecord = true;
+
+                    // configuration
+                    roleIsServer = true;
+                    serverModeSet = false;
+                    doClientAuth = clauth_none;
+                    enableSessionCreation = true;
+                    identificationProtocol = null;
+                    algorithmConstraints = null;
+                    preferLocalCipherSuites = false;
+                    serverNames = Utilities.addToSNIServerNameList(
+                            Collections.<SNIServerName>emptyList(),
+                            getPeerHost());
+                    sniMatchers = Collections.<SNIMatcher>emptyList();
+                    enabledCipherSuites =
+                            sslContext.getDefaultCipherSuiteList(roleIsServer);
+                    enabledProtocols =
+                            sslContext.getDefaultProtocolList(roleIsServer);
+                    protocolVersion = ProtocolVersion.DEFAULT;
+
+                    // security state, the ciphers were disposed on closure
+                    readCipher = CipherBox.NULL;
+                    readAuthenticator = MAC.NULL;
+                    writeCipher = CipherBox.NULL;
+                    writeAuthenticator = MAC.NULL;
+                    secureRenegotiation = false;
+                    clientVerifyData = new byte[0];
+                    serverVerifyData = new byte[0];
+                    acc = captureAcc();
+
+                    // Grizzly extensions
+                    corked = false;
+                    corkBuffer = null;
+                    maxFragmentLength = Record.maxDataSize;
+                    appDataWritten = 0;
+
+                    // The records are reused, the writer can't be reopened.
+                    synchronized (writeLock) {
+                        writer = new EngineWriter();
+                        queuedRecordSizes.clear();
+                        outputRecord.setVersion(ProtocolVersion.DEFAULT);
+                    }
+                    if (inputRecord == null) {
+                        inputRecord = new EngineInputRecord(this);
+                    } else {
+                        inputRecord.setHandshakeHash(null);
+                        inputRecord.setHelloVersion(
+                                ProtocolVersion.DEFAULT_HELLO);
+                    }
+                    inputRecord.enableFormatChecks();
+                }
+            }
+        }
+    }
+    // END GRIZZLY NPN
+
     /**
      * Returns the outbound application data closure state
      */
@@ -1753,18 +2809,10 @@ final public class SSLEngineImpl extends SSLEngine {
 
         if (debug != null && (Debug.isOn("record") ||
                 Debug.isOn("handshake"))) {
-            synchronized (System.out) {
-                System.out.print(Thread.currentThread().getName());
-                System.out.print(", RECV " + protocolVersion + " ALERT:  ");
-                if (level == Alerts.alert_fatal) {
-                    System.out.print("fatal, ");
-                } else if (level == Alerts.alert_warning) {
-                    System.out.print("warning, ");
-                } else {
-                    System.out.print("<level " + (0x0ff & level) + ">, ");
-                }
-                System.out.println(Alerts.alertDescription(description));
-            }
+            // BEGIN GRIZZLY NPN
+            System.out.println(
+                    alertToString("RECV", level, description, false));
+            // END GRIZZLY NPN
         }
 
         if (level == Alerts.alert_warning) {
@@ -1802,7 +2850,11 @@ final public class SSLEngineImpl extends SSLEngine {
     /*
      * Emit alerts.  Caller must have synchronized with "this".
      */
-    private void sendAlert(byte level, byte description) {
+    // BEGIN GRIZZLY NPN
+    // synchronized as alertRecord is reused; callers mostly hold the
+    // lock already
+    private synchronized void sendAlert(byte level, byte description) {
+    // END GRIZZLY NPN
         // the connectionState cannot be cs_START
         if (connectionState >= cs_CLOSED) {
             return;
@@ -1815,24 +2867,23 @@ final public class SSLEngineImpl extends SSLEngine {
             return;
         }
 
-        EngineOutputRecord r = new EngineOutputRecord(Record.ct_alert, this);
+        // BEGIN GRIZZLY NPN
+        // The record is emptied again by writeRecord(), so a single one
+        // serves all the alerts of this engine.
+        if (alertRecord == null) {
+            alertRecord = new EngineOutputRecord(Record.ct_alert, this);
+        }
+        EngineOutputRecord r = alertRecord;
+        // END GRIZZLY NPN
         r.setVersion(protocolVersion);
 
         boolean useDebug = debug != null && Debug.isOn("ssl");
         if (useDebug) {
-            synchronized (System.out) {
-                System.out.print(Thread.currentThread().getName());
-                System.out.print(", SEND " + protocolVersion + " ALERT:  ");
-                if (level == Alerts.alert_fatal) {
-                    System.out.print("fatal, ");
-                } else if (level == Alerts.alert_warning) {
-                    System.out.print("warning, ");
-                } else {
-                    System.out.print("<level = " + (0x0ff & level) + ">, ");
-                }
-                System.out.println("description = "
-                        + Alerts.alertDescription(description));
-            }
+            // BEGIN GRIZZLY NPN
+            // a single println() instead of holding System.out's lock
+            System.out.println(
+                    alertToString("SEND", level, description, true));
+            // END GRIZZLY NPN
         }
 
         r.write(level);
@@ -1847,6 +2898,31 @@ final public class SSLEngineImpl extends SSLEngine {
         }
     }
 
+    // BEGIN GRIZZLY NPN
+    /*
+     * Formats the debug line of a sent or received alert.
+     */
+    private String alertToString(String direction, byte level,
+            byte description, boolean labelDescription) {
+        StringBuilder sb = new StringBuilder(80);
+        sb.append(Thread.currentThread().getName()).append(", ")
+                .append(direction).append(' ').append(protocolVersion)
+                .append(" ALERT:  ");
+        if (level == Alerts.alert_fatal) {
+            sb.append("fatal, ");
+        } else if (level == Alerts.alert_warning) {
+            sb.append("warning, ");
+        } else {
+            sb.append(labelDescription ? "<level = " : "<level ")
+                    .append(0x0ff & level).append(">, ");
+        }
+        if (labelDescription) {
+            sb.append("description = ");
+        }
+        return sb.append(Alerts.alertDescription(description)).toString();
+    }
+    // END GRIZZLY NPN
+
 
     //
     // VARIOUS OTHER METHODS (COMMON TO SSLSocket)
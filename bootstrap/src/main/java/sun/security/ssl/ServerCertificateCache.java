@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package sun.security.ssl;
+
+import java.lang.ref.WeakReference;
+import java.security.AlgorithmConstraints;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+import org.glassfish.grizzly.npn.CertificateCacheSupport;
+
+import sun.security.ssl.HandshakeMessage.CertificateMsg;
+
+/*
+ * Cache of the server credentials chosen by a KeyManager.  Without it,
+ * every full handshake has the KeyManager choose an alias, usually by
+ * scanning its key stores, then fetches the key and chain and encodes
+ * each certificate of the chain again for the Certificate message.
+ *
+ * Credentials are keyed by the identity of the KeyManager, the key type
+ * asked for, the server names requested by the client, the signature
+ * algorithms it supports and the user algorithm constraints of the
+ * engine, which are all a KeyManager normally bases its choice on.  The
+ * Certificate message is encoded once and shared.  Checks depending on
+ * the peer, like its elliptic curves, are still made by each handshake.
+ *
+ * As a KeyManager may choose differently once its key material changed,
+ * credentials chosen before CertificateCacheSupport.invalidate() was
+ * last called aren't used anymore; a handshake passes the generation it
+ * saw before asking the KeyManager, so that a choice made concurrently
+ * with an invalidation isn't cached.  Up to MAX_ENTRIES credentials are
+ * kept.
+ *
+ * Enabled by org.glassfish.grizzly.npn.serverCertificateCache, for
+ * engines only.  A cached choice skips the KeyManager's own checks:
+ * credentials are used until the leaf certificate's notAfter date, but
+ * a KeyManager preferring other credentials over time, for instance
+ * before their notBefore date or based on anything else than the key
+ * above, needs invalidate() to be called.
+ */
+final class ServerCertificateCache {
+
+    static final boolean enabled = Debug.getBooleanProperty(
+            "org.glassfish.grizzly.npn.serverCertificateCache", false);
+
+    private static final int MAX_ENTRIES = 256;
+
+    private static final BoundedCache<Key, Entry> entries =
+            new BoundedCache<Key, Entry>(MAX_ENTRIES);
+
+    private ServerCertificateCache() {
+    }
+
+    /*
+     * Returns the credentials cached for a handshake, or null if the
+     * KeyManager has yet to choose them.  The generation is the one of
+     * CertificateCacheSupport when the handshake started looking.
+     */
+    static Entry get(X509ExtendedKeyManager km, String keyType,
+            SSLSessionImpl session, AlgorithmConstraints userConstraints,
+            int generation) {
+        Key key = new Key(km, keyType, session, userConstraints);
+        Entry entry = entries.get(key);
+        if ((entry != null) && ((entry.generation != generation) ||
+                (System.currentTimeMillis() > entry.notAfter))) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /*
+     * Caches the credentials chosen by the KeyManager, unless the cache
+     * has been invalidated since the handshake saw the generation.
+     */
+    static Entry put(X509ExtendedKeyManager km, String keyType,
+            SSLSessionImpl session, AlgorithmConstraints userConstraints,
+            int generation, PrivateKey privateKey, X509Certificate[] chain) {
+        Entry entry = new Entry(privateKey, chain, generation);
+        if (generation == CertificateCacheSupport.getGeneration()) {
+            entries.put(new Key(km, keyType, session, userConstraints),
+                    entry);
+        }
+        return entry;
+    }
+
+    static final class Entry {
+
+        final PrivateKey privateKey;
+        final X509Certificate[] chain;
+        final CertificateMsg message;
+        final int generation;
+        final long notAfter;
+
+        Entry(PrivateKey privateKey, X509Certificate[] chain, int generation) {
+            this.privateKey = privateKey;
+            this.chain = chain;
+            this.generation = generation;
+            this.notAfter = chain[0].getNotAfter().getTime();
+            this.message = new CertificateMsg(chain);
+            // encode the chain before the message is shared
+            message.messageLength();
+        }
+
+    } // END Entry
+
+    private static final class Key {
+
+        private final WeakReference<X509ExtendedKeyManager> km;
+        private final String keyType;
+        private final List<SNIServerName> serverNames;
+        private final List<String> peerSignAlgs;
+        private final WeakReference<AlgorithmConstraints> userConstraints;
+        private final int hash;
+
+        Key(X509ExtendedKeyManager km, String keyType,
+                SSLSessionImpl session, AlgorithmConstraints userConstraints) {
+            this.km = BoundedCache.weak(km);
+            this.keyType = keyType;
+            this.serverNames = session.getRequestedServerNames();
+            this.peerSignAlgs = Arrays.asList(
+                    session.getPeerSupportedSignatureAlgorithms());
+            this.userConstraints = BoundedCache.weak(userConstraints);
+            this.hash = 31 * (31 * (31 * System.identityHashCode(km) +
+                    keyType.hashCode()) + serverNames.hashCode()) +
+                    peerSignAlgs.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)o;
+            return BoundedCache.sameReferent(km, other.km) &&
+                    keyType.equals(other.keyType) &&
+                    serverNames.equals(other.serverNames) &&
+                    peerSignAlgs.equals(other.peerSignAlgs) &&
+                    BoundedCache.sameReferent(userConstraints,
+                            other.userConstraints);
+        }
+
+    } // END Key
+
+} // END ServerCertificateCache
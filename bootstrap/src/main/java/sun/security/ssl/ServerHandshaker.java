@@ -18,6 +18,7 @@ package sun.security.ssl;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Future;
 import java.security.*;
 import java.security.cert.*;
 import java.security.interfaces.*;
@@ -32,8 +33,12 @@ import javax.net.ssl.*;
 import javax.security.auth.Subject;
 
 import org.glassfish.grizzly.npn.AlpnServerNegotiator;
+import org.glassfish.grizzly.npn.CertificateCacheSupport;
+import org.glassfish.grizzly.npn.ExternalSessionStore;
 import org.glassfish.grizzly.npn.NegotiationSupport;
+import org.glassfish.grizzly.npn.ServerSessionCache;
 import org.glassfish.grizzly.npn.ServerSideNegotiator;
+import org.glassfish.grizzly.npn.SessionCacheSupport;
 import sun.security.util.KeyUtil;
 import sun.security.util.LegacyAlgorithmConstraints;
 import sun.security.action.GetPropertyAction;
@@ -64,6 +69,33 @@ final class ServerHandshaker extends Handshaker {
     // flag to check for clientCertificateVerify message
     private boolean             needClientVerify = false;
 
+    // BEGIN GRIZZLY NPN
+    // Whether to honor max_fragment_length (RFC 6066) requests.
+    private final static boolean acceptMaxFragmentLength =
+            Debug.getBooleanProperty(
+                    "org.glassfish.grizzly.npn.acceptMaxFragmentLength", false);
+
+    // the max_fragment_length agreed to in this handshake, or 0
+    private int maxFragmentLength;
+
+    // Whether to resume sessions from, and issue, session tickets
+    // (RFC 5077).  See SessionTicketKeys for sharing their keys.
+    private final static boolean issueSessionTickets =
+            Debug.getBooleanProperty(
+                    "org.glassfish.grizzly.npn.issueSessionTickets", false);
+
+    // whether a NewSessionTicket message will be sent
+    private boolean sendSessionTicket;
+
+    // the encoded Certificate message for certs, if taken from the
+    // ServerCertificateCache
+    private CertificateMsg certificateMsg;
+
+    // the lookup of the session to resume in the ExternalSessionStore,
+    // started before the ClientHello is processed
+    private Future<byte[]> externalLookup;
+    // END GRIZZLY NPN
+
     /*
      * For exportable ciphersuites using non-exportable key sizes, we use
      * ephemeral RSA keys. We could also do anonymous RSA in the same way
@@ -215,6 +247,12 @@ final class ServerHandshaker extends Handshaker {
         switch (type) {
             case HandshakeMessage.ht_client_hello:
                 ClientHello ch = new ClientHello(input, message_len);
+                // BEGIN GRIZZLY NPN
+                if (deferClientHello(ch)) {
+                    // leaves the state for the delegated task
+                    return;
+                }
+                // END GRIZZLY NPN
                 /*
                  * send it off for processing.
                  */
@@ -631,12 +669,28 @@ final class ServerHandshaker extends Handshaker {
         // the client's asked to rejoin an existing session, and the server
         // permits this; (b) the other one, where a new session is created.
         //
+        // BEGIN GRIZZLY NPN
+        SessionTicketExtension ticketExt = null;
+        if (issueSessionTickets) {
+            ticketExt = (SessionTicketExtension)mesg.extensions.get(
+                    ExtensionType.EXT_SESSION_TICKET);
+        }
+        // END GRIZZLY NPN
         if (mesg.sessionId.length() != 0) {
             // client is trying to resume a session, let's see...
 
-            SSLSessionImpl previous = ((SSLSessionContextImpl)sslContext
-                    .engineGetServerSessionContext())
-                    .get(mesg.sessionId.getId());
+            // BEGIN GRIZZLY NPN
+            // A ticket takes precedence over the session cache
+            // (RFC 5077, section 3.4).
+            SSLSessionImpl previous = null;
+            if ((ticketExt != null) && !ticketExt.isEmpty()) {
+                previous = restoreSession(ticketExt.getTicket(),
+                        mesg.sessionId);
+            }
+            if (previous == null) {
+                previous = getCachedSession(mesg.sessionId);
+            }
+            // END GRIZZLY NPN
             //
             // Check if we can use the fast path, resuming a session.  We
             // can do so iff we have a valid record for that session, and
@@ -905,6 +959,43 @@ final class ServerHandshaker extends Handshaker {
             m1.extensions.add(new ExtendedMasterSecretExtension());
         }
         // BEGIN GRIZZLY NPN
+        // The max_fragment_length of a resumed session still applies,
+        // but mustn't be echoed.
+        if (engine != null) {
+            if (resumingSession) {
+                maxFragmentLength =
+                        MaxFragmentLengthExtension.getSessionLength(session);
+            } else if (acceptMaxFragmentLength) {
+                MaxFragmentLengthExtension maxFragmentLengthExt =
+                        (MaxFragmentLengthExtension)mesg.extensions.get(
+                                ExtensionType.EXT_MAX_FRAGMENT_LENGTH);
+                if (maxFragmentLengthExt != null) {
+                    int length = maxFragmentLengthExt.getLength();
+                    if (length < 0) {
+                        fatalSE(Alerts.alert_illegal_parameter,
+                                "Invalid max_fragment_length requested");
+                    }
+                    if (fitsMaxFragmentLength(length)) {
+                        maxFragmentLength = length;
+                        MaxFragmentLengthExtension.setSessionLength(
+                                session, length);
+                        m1.extensions.add(maxFragmentLengthExt);
+                    } else if (debug != null && Debug.isOn("handshake")) {
+                        System.out.println("Ignoring max_fragment_length " +
+                                length + ", handshake messages won't fit");
+                    }
+                }
+            }
+            engine.setMaxFragmentLength(maxFragmentLength);
+        }
+
+        // Only full handshakes issue a ticket, resumed sessions keep
+        // the one they were resumed from.
+        if ((ticketExt != null) && !resumingSession) {
+            sendSessionTicket = true;
+            m1.extensions.add(new SessionTicketExtension());
+        }
+
         if (responseExtension != null) {
             m1.extensions.add(responseExtension);
         }
@@ -923,6 +1014,9 @@ final class ServerHandshaker extends Handshaker {
             System.out.println("Cipher suite:  " + session.getSuite());
         }
         m1.write(output);
+        // BEGIN GRIZZLY NPN
+        flushIfFragmentLimited();
+        // END GRIZZLY NPN
 
         //
         // If we are resuming a session, we finish writing handshake
@@ -951,7 +1045,10 @@ final class ServerHandshaker extends Handshaker {
                 throw new RuntimeException("no certificates");
             }
 
-            CertificateMsg m2 = new CertificateMsg(certs);
+            // BEGIN GRIZZLY NPN
+            CertificateMsg m2 = (certificateMsg != null) ?
+                    certificateMsg : new CertificateMsg(certs);
+            // END GRIZZLY NPN
 
             /*
              * Set local certs in the SSLSession, output
@@ -962,6 +1059,9 @@ final class ServerHandshaker extends Handshaker {
                 m2.print(System.out);
             }
             m2.write(output);
+            // BEGIN GRIZZLY NPN
+            flushIfFragmentLimited();
+            // END GRIZZLY NPN
 
             // XXX has some side effects with OS TCP buffering,
             // leave it out for now
@@ -1057,6 +1157,9 @@ final class ServerHandshaker extends Handshaker {
                 m3.print(System.out);
             }
             m3.write(output);
+            // BEGIN GRIZZLY NPN
+            flushIfFragmentLimited();
+            // END GRIZZLY NPN
         }
 
         //
@@ -1127,6 +1230,249 @@ final class ServerHandshaker extends Handshaker {
         output.flush();
     }
 
+    // BEGIN GRIZZLY NPN
+    /*
+     * Handshake messages are buffered into records of up to 2^14 bytes
+     * by the JDK owned output stream, which can't fragment them any
+     * further.  Hence a max_fragment_length is only agreed to if every
+     * message of the handshake, in both directions, fits into a single
+     * fragment; they are then flushed one by one.  The messages are
+     * estimated from the certificate chain and key exchange, erring on
+     * the large side.
+     */
+    private boolean fitsMaxFragmentLength(int length) {
+        // CertificateRequest carries a possibly long list of CAs, and
+        // the client's certificate is unknown.
+        if (doClientAuth != SSLEngineImpl.clauth_none) {
+            return false;
+        }
+
+        int size = 0;
+        int keySize = 0;    // bounds signatures and RSA encrypted secrets
+        if (certs != null) {
+            CertificateMsg m = (certificateMsg != null) ?
+                    certificateMsg : new CertificateMsg(certs);
+            size = m.messageLength() + 4;
+            keySize = certs[0].getPublicKey().getEncoded().length;
+        }
+
+        switch (keyExchange) {
+            case K_RSA:
+                // ClientKeyExchange
+                size = Math.max(size, 4 + 2 + keySize);
+                break;
+            case K_ECDHE_RSA:
+            case K_ECDHE_ECDSA:
+                // ServerKeyExchange: curve, point of up to 521 bits, and
+                // the signature
+                size = Math.max(size, 4 + 4 + 134 + 4 + keySize);
+                break;
+            case K_ECDH_RSA:
+            case K_ECDH_ECDSA:
+                // ClientKeyExchange with a point of up to 521 bits
+                size = Math.max(size, 4 + 134);
+                break;
+            case K_DHE_RSA:
+            case K_DHE_DSS:
+                // ServerKeyExchange: p, g and Ys of up to 8192 bits, and
+                // the signature
+                size = Math.max(size, 4 + 6 + 3 * 1024 + 4 + keySize);
+                break;
+            default:
+                return false;
+        }
+
+        return size <= length;
+    }
+
+    private void flushIfFragmentLimited() throws IOException {
+        if (maxFragmentLength != 0) {
+            output.flush();
+        }
+    }
+
+    /*
+     * Looks a session up in the ServerSessionCache registered for the
+     * server session context, or else in the context itself, and then
+     * in the ExternalSessionStore registered for the context.  Sessions
+     * found in the store are cached locally.  The context's timeout
+     * applies to the ServerSessionCache as well.
+     *
+     * Engines only use what the store answered to the lookup started
+     * by deferClientHello(), if any, unless the store is non-blocking.
+     */
+    private SSLSessionImpl getCachedSession(SessionId sessionId) {
+        SSLSessionContextImpl context = (SSLSessionContextImpl)sslContext
+                .engineGetServerSessionContext();
+        ServerSessionCache cache =
+                SessionCacheSupport.getServerSessionCache(context);
+        SSLSessionImpl cached = getLocalSession(context, cache, sessionId);
+
+        if (cached == null) {
+            ExternalSessionStore store =
+                    SessionCacheSupport.getExternalSessionStore(context);
+            if (store != null) {
+                byte[] stored = null;
+                if (externalLookup != null) {
+                    stored = ExternalSessions.getResult(externalLookup);
+                    externalLookup = null;
+                } else if ((engine == null) || store.isNonBlocking()) {
+                    stored = ExternalSessions.get(store, sessionId.getId());
+                }
+                if (stored != null) {
+                    cached = restoreSession(stored, sessionId);
+                }
+                if (cached != null) {
+                    if (cache != null) {
+                        cache.put(cached);
+                    } else {
+                        context.put(cached);
+                    }
+                }
+            }
+        }
+        return cached;
+    }
+
+    private SSLSessionImpl getLocalSession(SSLSessionContextImpl context,
+            ServerSessionCache cache, SessionId sessionId) {
+        if (cache == null) {
+            return context.get(sessionId.getId());
+        }
+        SSLSession session = cache.get(sessionId.getId());
+        SSLSessionImpl cached = (session instanceof SSLSessionImpl) ?
+                (SSLSessionImpl)session : null;
+        if ((cached != null) && (!cached.isRejoinable() ||
+                isTimedOut(cached, context.getSessionTimeout()))) {
+            cache.remove(sessionId.getId());
+            cached = null;
+        }
+        return cached;
+    }
+
+    /*
+     * An engine processing a ClientHello holds the engine lock, so it
+     * doesn't wait for a blocking ExternalSessionStore itself.  If the
+     * session the client asks to resume has to be looked up there, the
+     * lookup is started and a delegated task processes the ClientHello,
+     * and any message following it, once the store answered or the
+     * lookup timed out.  Returns false if the ClientHello is to be
+     * processed right away.
+     *
+     * A client sending a session ticket isn't looked up ahead, the
+     * ticket is enough to resume its session.
+     */
+    private boolean deferClientHello(final ClientHello mesg) {
+        if ((engine == null) || (mesg.sessionId.length() == 0)) {
+            return false;
+        }
+        if (issueSessionTickets) {
+            SessionTicketExtension ticketExt = (SessionTicketExtension)
+                    mesg.extensions.get(ExtensionType.EXT_SESSION_TICKET);
+            if ((ticketExt != null) && !ticketExt.isEmpty()) {
+                return false;
+            }
+        }
+
+        SSLSessionContextImpl context = (SSLSessionContextImpl)sslContext
+                .engineGetServerSessionContext();
+        ExternalSessionStore store =
+                SessionCacheSupport.getExternalSessionStore(context);
+        if ((store == null) || store.isNonBlocking() ||
+                (getLocalSession(context,
+                        SessionCacheSupport.getServerSessionCache(context),
+                        mesg.sessionId) != null)) {
+            return false;
+        }
+
+        final Future<byte[]> lookup =
+                ExternalSessions.lookup(store, mesg.sessionId.getId());
+        if (lookup == null) {
+            return false;
+        }
+        messageDeferred = true;
+        delegateTask(lookup, new PrivilegedExceptionAction<Void>() {
+            @Override
+            public Void run() throws Exception {
+                messageDeferred = false;
+                externalLookup = lookup;
+                clientHello(mesg);
+                if (state < HandshakeMessage.ht_client_hello) {
+                    state = HandshakeMessage.ht_client_hello;
+                }
+                processLoop();
+                return null;
+            }
+        });
+        return true;
+    }
+
+    private static boolean isTimedOut(SSLSession session, int timeout) {
+        return (timeout > 0) && (System.currentTimeMillis() -
+                session.getCreationTime() > timeout * 1000L);
+    }
+
+    /*
+     * Returns the session a ticket, or a session stored externally, was
+     * made of, or null if it can't be decrypted or has expired.  The
+     * session takes the id the client sent along, which the ServerHello
+     * echoes to signal the resumption, and belongs to the server session
+     * context even if no cache of the context holds it.
+     */
+    private SSLSessionImpl restoreSession(byte[] ticket, SessionId sessionId) {
+        byte[] state = SessionTicketKeys.decrypt(ticket);
+        if (state == null) {
+            return null;
+        }
+        SSLSessionContextImpl context = (SSLSessionContextImpl)sslContext
+                .engineGetServerSessionContext();
+        try {
+            int timeout = context.getSessionTimeout();
+            if ((timeout > 0) && (System.currentTimeMillis() -
+                    SessionStateCodec.getCreationTime(state) >
+                            timeout * 1000L)) {
+                if (debug != null && Debug.isOn("session")) {
+                    System.out.println("Session ticket has expired");
+                }
+                return null;
+            }
+            SSLSessionImpl session = SessionStateCodec.decode(state,
+                    sessionId, getLocalSupportedSignAlgs(),
+                    getHostAddressSE(), getPortSE());
+            session.setContext(context);
+            return session;
+        } catch (IOException e) {
+            if (debug != null && Debug.isOn("session")) {
+                System.out.println("Invalid session ticket: " + e);
+            }
+            return null;
+        }
+    }
+
+    /*
+     * Sends the NewSessionTicket message promised in the ServerHello.  A
+     * session which can't be put into a ticket gets an empty one.
+     */
+    private void sendSessionTicket() throws IOException {
+        byte[] ticket = null;
+        if (session.isRejoinable()) {
+            byte[] state = SessionStateCodec.encode(session);
+            if (state != null) {
+                ticket = SessionTicketKeys.encrypt(state,
+                        sslContext.getSecureRandom());
+            }
+        }
+
+        NewSessionTicket m = new NewSessionTicket(
+                sslContext.engineGetServerSessionContext().getSessionTimeout(),
+                (ticket != null) ? ticket : new byte[0]);
+        if (debug != null && Debug.isOn("handshake")) {
+            m.print(System.out);
+        }
+        m.write(output);
+    }
+    // END GRIZZLY NPN
+
     /*
      * Choose cipher suite from among those supported by client. Sets
      * the cipherSuite and keyExchange variables.
@@ -1142,6 +1488,16 @@ final class ServerHandshaker extends Handshaker {
             proposed = getActiveCipherSuites();
         }
 
+        // BEGIN GRIZZLY NPN
+        if (CipherSuiteSelections.enabled) {
+            chooseCipherSuite(CipherSuiteSelections.get(prefered, proposed,
+                    protocolVersion,
+                    doClientAuth == SSLEngineImpl.clauth_required,
+                    legacyAlgorithmConstraints));
+            return;
+        }
+        // END GRIZZLY NPN
+
         List<CipherSuite> legacySuites = new ArrayList<>();
         for (CipherSuite suite : prefered.collection()) {
             if (isNegotiable(proposed, suite) == false) {
@@ -1182,6 +1538,29 @@ final class ServerHandshaker extends Handshaker {
         fatalSE(Alerts.alert_handshake_failure, "no cipher suites in common");
     }
 
+    // BEGIN GRIZZLY NPN
+    /*
+     * Choose the first usable cipher suite of a cached selection.
+     */
+    private void chooseCipherSuite(CipherSuiteSelections.Selection selection)
+            throws IOException {
+        CipherSuite[] candidates = selection.candidates;
+        for (int i = 0; i < candidates.length; i++) {
+            if (trySetCipherSuite(candidates[i])) {
+                if (debug != null && Debug.isOn("handshake")) {
+                    System.out.println(
+                            ((i < selection.standardCount) ?
+                                    "Standard" : "Legacy") +
+                            " ciphersuite chosen: " + candidates[i]);
+                }
+                return;
+            }
+        }
+
+        fatalSE(Alerts.alert_handshake_failure, "no cipher suites in common");
+    }
+    // END GRIZZLY NPN
+
     /**
      * Set the given CipherSuite, if possible. Return the result.
      * The call succeeds if the CipherSuite is available and we have
@@ -1553,6 +1932,12 @@ final class ServerHandshaker extends Handshaker {
             }
         }
 
+        // BEGIN GRIZZLY NPN
+        if (EphemeralKeyPool.enabled) {
+            dh = EphemeralKeyPool.getDH(keySize, sslContext.getSecureRandom());
+            return;
+        }
+        // END GRIZZLY NPN
         dh = new DHCrypt(keySize, sslContext.getSecureRandom());
     }
 
@@ -1568,6 +1953,12 @@ final class ServerHandshaker extends Handshaker {
             return false;
         }
 
+        // BEGIN GRIZZLY NPN
+        if (EphemeralKeyPool.enabled) {
+            ecdh = EphemeralKeyPool.getECDH(index, sslContext.getSecureRandom());
+            return true;
+        }
+        // END GRIZZLY NPN
         ecdh = new ECDHCrypt(index, sslContext.getSecureRandom());
         return true;
     }
@@ -1586,6 +1977,24 @@ final class ServerHandshaker extends Handshaker {
      */
     private boolean setupPrivateKeyAndChain(String algorithm) {
         X509ExtendedKeyManager km = sslContext.getX509KeyManager();
+        // BEGIN GRIZZLY NPN
+        ServerCertificateCache.Entry cached = null;
+        int generation = 0;
+        AlgorithmConstraints userConstraints = null;
+        boolean cacheable = ServerCertificateCache.enabled && (engine != null);
+        if (cacheable) {
+            generation = CertificateCacheSupport.getGeneration();
+            userConstraints = engine.getUserAlgorithmConstraints();
+            cached = ServerCertificateCache.get(km, algorithm, session,
+                    userConstraints, generation);
+        }
+        PrivateKey tempPrivateKey;
+        X509Certificate[] tempCerts;
+        if (cached != null) {
+            tempPrivateKey = cached.privateKey;
+            tempCerts = cached.chain;
+        } else {
+        // END GRIZZLY NPN
         String alias;
         if (conn != null) {
             alias = km.chooseServerAlias(algorithm, null, conn);
@@ -1595,14 +2004,21 @@ final class ServerHandshaker extends Handshaker {
         if (alias == null) {
             return false;
         }
-        PrivateKey tempPrivateKey = km.getPrivateKey(alias);
+        tempPrivateKey = km.getPrivateKey(alias);
         if (tempPrivateKey == null) {
             return false;
         }
-        X509Certificate[] tempCerts = km.getCertificateChain(alias);
+        tempCerts = km.getCertificateChain(alias);
         if ((tempCerts == null) || (tempCerts.length == 0)) {
             return false;
         }
+        // BEGIN GRIZZLY NPN
+        if (cacheable) {
+            cached = ServerCertificateCache.put(km, algorithm, session,
+                    userConstraints, generation, tempPrivateKey, tempCerts);
+        }
+        }
+        // END GRIZZLY NPN
         String keyAlgorithm = algorithm.split("_")[0];
         PublicKey publicKey = tempCerts[0].getPublicKey();
         if ((tempPrivateKey.getAlgorithm().equals(keyAlgorithm) == false)
@@ -1625,6 +2041,9 @@ final class ServerHandshaker extends Handshaker {
         }
         this.privateKey = tempPrivateKey;
         this.certs = tempCerts;
+        // BEGIN GRIZZLY NPN
+        this.certificateMsg = (cached != null) ? cached.message : null;
+        // END GRIZZLY NPN
         return true;
     }
 
@@ -1863,6 +2282,11 @@ final class ServerHandshaker extends Handshaker {
          */
         if (!resumingSession) {
             input.digestNow();
+            // BEGIN GRIZZLY NPN
+            if (sendSessionTicket) {
+                sendSessionTicket();
+            }
+            // END GRIZZLY NPN
             sendChangeCipherAndFinish(true);
         }
 
@@ -1872,8 +2296,27 @@ final class ServerHandshaker extends Handshaker {
          */
         session.setLastAccessedTime(System.currentTimeMillis());
         if (!resumingSession && session.isRejoinable()) {
-            ((SSLSessionContextImpl)sslContext.engineGetServerSessionContext())
-                    .put(session);
+            // BEGIN GRIZZLY NPN
+            SSLSessionContextImpl context = (SSLSessionContextImpl)sslContext
+                    .engineGetServerSessionContext();
+            ServerSessionCache cache =
+                    SessionCacheSupport.getServerSessionCache(context);
+            if (cache != null) {
+                // the cache owns the session, but getSessionContext()
+                // still has to return the context
+                session.setContext(context);
+                cache.put(session);
+            } else {
+                context.put(session);
+            }
+            ExternalSessionStore store =
+                    SessionCacheSupport.getExternalSessionStore(context);
+            if (store != null) {
+                ExternalSessions.put(store, session,
+                        context.getSessionTimeout(),
+                        sslContext.getSecureRandom());
+            }
+            // END GRIZZLY NPN
             if (debug != null && Debug.isOn("session")) {
                 System.out.println(
                         "%% Cached server session: " + session);
@@ -2023,6 +2466,19 @@ final class ServerHandshaker extends Handshaker {
                 authType = "UNKNOWN";
             }
 
+            // BEGIN GRIZZLY NPN
+            TrustedChains.Key trustKey = null;
+            if (TrustedChains.enabled && (engine != null)) {
+                trustKey = new TrustedChains.Key(tm, peerCerts,
+                        authType, false, getHostSE(), serverNames,
+                        getEndpointIdentificationAlgorithmSE(),
+                        protocolVersion, getLocalSupportedSignAlgs(),
+                        engine.getUserAlgorithmConstraints());
+            }
+            if ((trustKey != null) && TrustedChains.isTrusted(trustKey)) {
+                // accepted before, the TrustManager isn't asked again
+            } else {
+            // END GRIZZLY NPN
             if (tm instanceof X509ExtendedTrustManager) {
                 if (conn != null) {
                     ((X509ExtendedTrustManager)tm).checkClientTrusted(
@@ -2041,6 +2497,12 @@ final class ServerHandshaker extends Handshaker {
                 throw new CertificateException(
                         "Improper X509TrustManager implementation");
             }
+            // BEGIN GRIZZLY NPN
+            if (trustKey != null) {
+                TrustedChains.setTrusted(trustKey);
+            }
+            }
+            // END GRIZZLY NPN
         } catch (CertificateException e) {
             // This will throw an exception, so include the original error.
             fatalSE(Alerts.alert_certificate_unknown, e);
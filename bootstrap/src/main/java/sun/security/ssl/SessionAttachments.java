@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+
+package sun.security.ssl;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.SSLSession;
+
+/*
+ * Values this package attaches to sessions, which are JDK classes without
+ * fields of their own for them.  Unlike the session's value map, these
+ * aren't visible to applications.
+ *
+ * Sessions are keyed by identity, as SSLSessionImpl compares session
+ * ids, which client sessions may share or lack, and weakly, so that the
+ * values go away with their session.  Lookups don't lock.
+ */
+final class SessionAttachments<V> {
+
+    private final ConcurrentHashMap<SessionRef, V> values =
+            new ConcurrentHashMap<SessionRef, V>(16);
+    private final ReferenceQueue<SSLSession> collected =
+            new ReferenceQueue<SSLSession>();
+
+    V get(SSLSession session) {
+        expunge();
+        return values.get(new SessionRef(session, null));
+    }
+
+    void put(SSLSession session, V value) {
+        expunge();
+        values.put(new SessionRef(session, collected), value);
+    }
+
+    void remove(SSLSession session) {
+        expunge();
+        values.remove(new SessionRef(session, null));
+    }
+
+    // drops the values of collected sessions
+    private void expunge() {
+        Reference<? extends SSLSession> ref;
+        while ((ref = collected.poll()) != null) {
+            values.remove(ref);
+        }
+    }
+
+    private static final class SessionRef extends WeakReference<SSLSession> {
+
+        private final int hash;
+
+        SessionRef(SSLSession session, ReferenceQueue<SSLSession> queue) {
+            super(session, queue);
+            this.hash = System.identityHashCode(session);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        // a cleared reference only equals itself
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof SessionRef)) {
+                return false;
+            }
+            SSLSession session = get();
+            return (session != null) && (session == ((SessionRef)o).get());
+        }
+
+    } // END SessionRef
+
+} // END SessionAttachments
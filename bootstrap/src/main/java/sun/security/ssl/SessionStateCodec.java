@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package sun.security.ssl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.crypto.spec.SecretKeySpec;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.StandardConstants;
+
+import static sun.security.ssl.CipherSuite.KeyExchange.K_KRB5;
+import static sun.security.ssl.CipherSuite.KeyExchange.K_KRB5_EXPORT;
+
+/*
+ * Serializes what is needed to resume a session elsewhere: the protocol
+ * version, cipher suite, master secret, use of the extended master
+ * secret, the peer's certificates, the requested host names and the
+ * negotiated max_fragment_length.  Local certificates and keys aren't
+ * included, whoever resumes the session has its own.
+ *
+ * Sessions are JDK classes whose creation time can't be restored, so
+ * the original one is kept in the state for expiry checks.  Server
+ * names of other types than host_name are left out, as the JDK's class
+ * for them isn't accessible and they'd otherwise not compare equal to
+ * the names of a new handshake.  Sessions of Kerberos cipher suites,
+ * whose principals can't be restored, aren't supported.
+ */
+final class SessionStateCodec {
+
+    private static final int FORMAT = 1;
+
+    private SessionStateCodec() {
+    }
+
+    /*
+     * Returns the state of a session, or null if it can't be encoded.
+     */
+    static byte[] encode(SSLSessionImpl session) throws IOException {
+        CipherSuite suite = session.getSuite();
+        if (suite.keyExchange == K_KRB5 || suite.keyExchange == K_KRB5_EXPORT
+                || session.getMasterSecret() == null) {
+            return null;
+        }
+        // keys of some providers can't be extracted
+        byte[] masterSecret = session.getMasterSecret().getEncoded();
+        if (masterSecret == null) {
+            return null;
+        }
+
+        Certificate[] peerCerts;
+        try {
+            peerCerts = session.getPeerCertificates();
+        } catch (SSLPeerUnverifiedException e) {
+            peerCerts = null;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(FORMAT);
+        out.writeLong(session.getCreationTime());
+        out.writeByte(session.getProtocolVersion().major);
+        out.writeByte(session.getProtocolVersion().minor);
+        out.writeShort(suite.id);
+        out.writeBoolean(session.getUseExtendedMasterSecret());
+        writeBytes(out, masterSecret);
+        out.writeShort(
+                MaxFragmentLengthExtension.getSessionLength(session));
+
+        if (peerCerts != null) {
+            out.writeByte(peerCerts.length);
+            for (Certificate cert : peerCerts) {
+                try {
+                    writeBytes(out, cert.getEncoded());
+                } catch (CertificateException e) {
+                    throw new IOException(e);
+                }
+            }
+        } else {
+            out.writeByte(0);
+        }
+
+        List<SNIServerName> serverNames = new ArrayList<SNIServerName>();
+        for (SNIServerName serverName : session.getRequestedServerNames()) {
+            if (serverName.getType() == StandardConstants.SNI_HOST_NAME) {
+                serverNames.add(serverName);
+            }
+        }
+        out.writeByte(serverNames.size());
+        for (SNIServerName serverName : serverNames) {
+            out.writeByte(serverName.getType());
+            writeBytes(out, serverName.getEncoded());
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /*
+     * Returns the creation time of an encoded session.
+     */
+    static long getCreationTime(byte[] state) throws IOException {
+        DataInputStream in = open(state);
+        return in.readLong();
+    }
+
+    /*
+     * Returns a session restored from its state, or null if its protocol
+     * version or cipher suite isn't supported.
+     */
+    static SSLSessionImpl decode(byte[] state, SessionId id,
+            Collection<SignatureAndHashAlgorithm> localSignAlgs,
+            String host, int port) throws IOException {
+        DataInputStream in = open(state);
+        in.readLong();
+        ProtocolVersion version =
+                ProtocolVersion.valueOf(in.readByte(), in.readByte());
+        int suiteId = in.readUnsignedShort();
+        CipherSuite suite = CipherSuite.valueOf(suiteId >> 8, suiteId & 0xFF);
+        if (!suite.isAvailable()) {
+            return null;
+        }
+        boolean useEMS = in.readBoolean();
+        byte[] masterSecret = readBytes(in);
+        int maxFragmentLength = in.readUnsignedShort();
+
+        X509Certificate[] peerCerts = null;
+        int count = in.readUnsignedByte();
+        if (count != 0) {
+            peerCerts = new X509Certificate[count];
+            try {
+                CertificateFactory factory =
+                        CertificateFactory.getInstance("X.509");
+                for (int i = 0; i < count; i++) {
+                    peerCerts[i] = (X509Certificate) factory.generateCertificate(
+                            new ByteArrayInputStream(readBytes(in)));
+                }
+            } catch (CertificateException e) {
+                throw new IOException(e);
+            }
+        }
+
+        List<SNIServerName> serverNames =
+                Collections.<SNIServerName>emptyList();
+        count = in.readUnsignedByte();
+        if (count != 0) {
+            serverNames = new ArrayList<SNIServerName>(count);
+            for (int i = 0; i < count; i++) {
+                int type = in.readUnsignedByte();
+                byte[] encoded = readBytes(in);
+                if (type == StandardConstants.SNI_HOST_NAME) {
+                    serverNames.add(new SNIHostName(encoded));
+                }
+            }
+            serverNames = Collections.unmodifiableList(serverNames);
+        }
+
+        SSLSessionImpl session = new SSLSessionImpl(version, suite,
+                localSignAlgs, id, host, port, useEMS);
+        session.setMasterSecret(new SecretKeySpec(masterSecret,
+                "TlsMasterSecret"));
+        if (peerCerts != null) {
+            session.setPeerCertificates(peerCerts);
+        }
+        session.setRequestedServerNames(serverNames);
+        MaxFragmentLengthExtension.setSessionLength(session,
+                maxFragmentLength);
+        return session;
+    }
+
+    private static DataInputStream open(byte[] state) throws IOException {
+        DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(state));
+        if (in.readUnsignedByte() != FORMAT) {
+            throw new IOException("Unknown session state format");
+        }
+        return in;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] b)
+            throws IOException {
+        out.writeShort(b.length);
+        out.write(b);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readUnsignedShort()];
+        in.readFully(b);
+        return b;
+    }
+
+} // END SessionStateCodec
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package sun.security.ssl;
+
+import java.io.IOException;
+
+import javax.net.ssl.SSLSession;
+
+/*
+ * The SessionTicket extension (RFC 5077, section 3.2).
+ *
+ * A client sends it empty to ask for a ticket, or carrying the ticket it
+ * was given to resume a session without server side state.  A server
+ * echoes it empty if it is going to send a NewSessionTicket message.
+ * Sessions are JDK classes, so the tickets clients hold for them are
+ * attached to them here.
+ */
+final class SessionTicketExtension extends HelloExtension {
+
+    private static final String TICKET_TO_STRING_MSG =
+            "Extension SessionTicket, ticket length: %d";
+
+    static final int ID = 0x0023;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final SessionAttachments<byte[]> sessionTickets =
+            new SessionAttachments<byte[]>();
+
+    private final byte[] ticket;
+
+    SessionTicketExtension() {
+        this(EMPTY);
+    }
+
+    SessionTicketExtension(byte[] ticket) {
+        super(ExtensionType.EXT_SESSION_TICKET);
+        this.ticket = ticket;
+    }
+
+    SessionTicketExtension(HandshakeInStream s, int len) throws IOException {
+        super(ExtensionType.EXT_SESSION_TICKET);
+        ticket = new byte[len];
+        if (len != 0) {
+            s.read(ticket);
+        }
+    }
+
+    byte[] getTicket() {
+        return ticket;
+    }
+
+    boolean isEmpty() {
+        return ticket.length == 0;
+    }
+
+    @Override
+    int length() {
+        return 4 + ticket.length;
+    }
+
+    @Override
+    void send(HandshakeOutStream s) throws IOException {
+        s.putInt16(ID);
+        s.putInt16(ticket.length);
+        s.write(ticket);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(TICKET_TO_STRING_MSG, ticket.length);
+    }
+
+    static void setSessionTicket(SSLSession session, byte[] ticket) {
+        if (ticket != null && ticket.length != 0) {
+            sessionTickets.put(session, ticket);
+        } else {
+            sessionTickets.remove(session);
+        }
+    }
+
+    /*
+     * Returns the ticket received for a client session, or null.
+     */
+    static byte[] getSessionTicket(SSLSession session) {
+        return sessionTickets.get(session);
+    }
+
+} // END SessionTicketExtension
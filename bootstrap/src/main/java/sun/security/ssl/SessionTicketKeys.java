@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package sun.security.ssl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.AccessController;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivilegedAction;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import sun.security.action.GetPropertyAction;
+
+/*
+ * The keys protecting session tickets (RFC 5077, section 4).
+ *
+ * Tickets are encrypted with AES/GCM and laid out as
+ *
+ *     key_name[16] | iv[12] | encrypted state and tag
+ *
+ * where key_name, the first 16 bytes of the SHA-256 digest of the key,
+ * is authenticated as additional data.
+ *
+ * Servers behind a load balancer resume each other's sessions if they
+ * share their keys: the file named by the
+ * org.glassfish.grizzly.npn.sessionTicketKeyFile property holds one
+ * base64 encoded 128 or 256 bit AES key per line.  The first key
+ * encrypts new tickets, all of them decrypt.  Keys are rotated by
+ * adding a new first line, and dropping the last one once the tickets
+ * it encrypted have expired; the file is read again when it changes.
+ * If the file can't be read, the error is reported in the session debug
+ * output and the keys loaded before stay in use; if there are none, no tickets are
+ * issued or accepted until the file is fixed, instead of using a key
+ * the other servers don't share.  Only without a configured file, a
+ * random key private to this JVM is used.
+ */
+final class SessionTicketKeys {
+
+    private static final Debug debug = Debug.getInstance("ssl");
+
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final int KEY_NAME_LENGTH = 16;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+
+    // how often to look for changes of the key file
+    private static final long CHECK_INTERVAL = 1000;
+
+    private static final File keyFile;
+
+    static {
+        String name = AccessController.doPrivileged(new GetPropertyAction(
+                "org.glassfish.grizzly.npn.sessionTicketKeyFile"));
+        keyFile = ((name != null) && !name.isEmpty()) ? new File(name) : null;
+    }
+
+    private static volatile TicketKey[] keys;
+    private static long keyFileModified;
+    // the modification time of the key file last reported as unreadable
+    private static long failedKeyFileModified = Long.MIN_VALUE;
+    private static volatile long nextCheck;
+
+    private SessionTicketKeys() {
+    }
+
+    /*
+     * Returns the ticket for a session's state, or null if it couldn't
+     * be encrypted.
+     */
+    static byte[] encrypt(byte[] state, SecureRandom random) {
+        TicketKey[] current = getKeys();
+        if (current.length == 0) {
+            return null;
+        }
+        TicketKey key = current[0];
+        byte[] ticket = new byte[KEY_NAME_LENGTH + IV_LENGTH +
+                state.length + TAG_BITS / 8];
+        System.arraycopy(key.name, 0, ticket, 0, KEY_NAME_LENGTH);
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        System.arraycopy(iv, 0, ticket, KEY_NAME_LENGTH, IV_LENGTH);
+        try {
+            Cipher cipher = JsseJce.getCipher(CIPHER);
+            cipher.init(Cipher.ENCRYPT_MODE, key.key,
+                    new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(key.name);
+            cipher.doFinal(state, 0, state.length, ticket,
+                    KEY_NAME_LENGTH + IV_LENGTH);
+            return ticket;
+        } catch (GeneralSecurityException e) {
+            if (debug != null && Debug.isOn("session")) {
+                System.out.println("Can't encrypt session ticket: " + e);
+            }
+            return null;
+        }
+    }
+
+    /*
+     * Returns the session state protected by a ticket, or null if none
+     * of the keys decrypts it.
+     */
+    static byte[] decrypt(byte[] ticket) {
+        int offset = KEY_NAME_LENGTH + IV_LENGTH;
+        if (ticket.length < offset + TAG_BITS / 8) {
+            return null;
+        }
+        for (TicketKey key : getKeys()) {
+            if (!key.matches(ticket)) {
+                continue;
+            }
+            try {
+                Cipher cipher = JsseJce.getCipher(CIPHER);
+                cipher.init(Cipher.DECRYPT_MODE, key.key,
+                        new GCMParameterSpec(TAG_BITS, ticket,
+                                KEY_NAME_LENGTH, IV_LENGTH));
+                cipher.updateAAD(key.name);
+                return cipher.doFinal(ticket, offset, ticket.length - offset);
+            } catch (GeneralSecurityException e) {
+                if (debug != null && Debug.isOn("session")) {
+                    System.out.println("Can't decrypt session ticket: " + e);
+                }
+                return null;
+            }
+        }
+        if (debug != null && Debug.isOn("session")) {
+            System.out.println("Session ticket key is unknown");
+        }
+        return null;
+    }
+
+    private static TicketKey[] getKeys() {
+        TicketKey[] current = keys;
+        if ((current == null) ||
+                ((keyFile != null) && (System.currentTimeMillis() >= nextCheck))) {
+            current = loadKeys();
+        }
+        return current;
+    }
+
+    private static synchronized TicketKey[] loadKeys() {
+        long now = System.currentTimeMillis();
+        if ((keys != null) && (now < nextCheck)) {
+            return keys;
+        }
+        nextCheck = now + CHECK_INTERVAL;
+
+        if (keyFile != null) {
+            long modified = AccessController.doPrivileged(
+                    new PrivilegedAction<Long>() {
+                        @Override
+                        public Long run() {
+                            return keyFile.lastModified();
+                        }
+                    });
+            if ((keys != null) && (modified == keyFileModified)) {
+                return keys;
+            }
+            try {
+                keys = readKeyFile();
+                keyFileModified = modified;
+                if (debug != null && Debug.isOn("session")) {
+                    System.out.println("Loaded " + keys.length +
+                            " session ticket keys from " + keyFile);
+                }
+                return keys;
+            } catch (Exception e) {
+                // keep the keys we have until the file is fixed, and
+                // report each version of the file once
+                if (modified != failedKeyFileModified) {
+                    failedKeyFileModified = modified;
+                    if (debug != null && Debug.isOn("session")) {
+                        System.out.println("Can't load session ticket keys from "
+                                + keyFile + ": " + e + ((keys == null)
+                                        ? ", session tickets are disabled"
+                                        : ", keeping the previous keys"));
+                    }
+                }
+                if (keys == null) {
+                    keys = new TicketKey[0];
+                }
+            }
+        } else if (keys == null) {
+            byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            keys = new TicketKey[] { new TicketKey(key) };
+        }
+        return keys;
+    }
+
+    private static TicketKey[] readKeyFile() throws Exception {
+        List<String> lines = AccessController.doPrivileged(
+                new PrivilegedAction<List<String>>() {
+                    @Override
+                    public List<String> run() {
+                        try {
+                            return Files.readAllLines(keyFile.toPath(),
+                                    StandardCharsets.US_ASCII);
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                });
+        List<TicketKey> loaded = new ArrayList<TicketKey>(lines.size());
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            byte[] key = Base64.getDecoder().decode(line);
+            if ((key.length != 16) && (key.length != 32)) {
+                throw new IllegalArgumentException(
+                        "Invalid session ticket key length: " + key.length);
+            }
+            loaded.add(new TicketKey(key));
+        }
+        if (loaded.isEmpty()) {
+            throw new IllegalArgumentException("No session ticket keys");
+        }
+        return loaded.toArray(new TicketKey[loaded.size()]);
+    }
+
+    private static final class TicketKey {
+
+        final byte[] name;
+        final SecretKey key;
+
+        TicketKey(byte[] key) {
+            try {
+                this.name = Arrays.copyOf(
+                        MessageDigest.getInstance("SHA-256").digest(key),
+                        KEY_NAME_LENGTH);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            this.key = new SecretKeySpec(key, "AES");
+        }
+
+        boolean matches(byte[] ticket) {
+            for (int i = 0; i < KEY_NAME_LENGTH; i++) {
+                if (ticket[i] != name[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    } // END TicketKey
+
+} // END SessionTicketKeys
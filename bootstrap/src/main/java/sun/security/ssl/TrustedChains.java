@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package sun.security.ssl;
+
+import java.lang.ref.WeakReference;
+import java.security.AccessController;
+import java.security.AlgorithmConstraints;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.X509TrustManager;
+
+import sun.security.action.GetIntegerAction;
+
+/*
+ * Cache of the certificate chains a TrustManager has accepted.  Without
+ * it, every full handshake has the TrustManager build and validate a
+ * certification path for the peer's chain, verifying each signature,
+ * although peers mostly present the same few chains over and over.
+ *
+ * A chain is looked up together with everything the TrustManager bases
+ * its verdict on: its identity, the direction and auth type of the
+ * check, the peer host, the server names and endpoint identification
+ * algorithm used to check the peer's identity, and the protocol version,
+ * signature algorithms and user algorithm constraints which restrict the
+ * algorithms of the chain.  Only accepted chains are cached, until the
+ * first of their certificates expires or for at most
+ * org.glassfish.grizzly.npn.trustCache.ttl seconds, whichever comes
+ * first; the TrustManager isn't asked again in the meantime, so neither
+ * is a revocation checker it may use.  Up to MAX_ENTRIES chains are kept.
+ *
+ * Enabled by org.glassfish.grizzly.npn.trustCache, for engines only.
+ */
+final class TrustedChains {
+
+    static final boolean enabled = Debug.getBooleanProperty(
+            "org.glassfish.grizzly.npn.trustCache", false);
+
+    private static final long ttl = 1000L * Math.max(0,
+            AccessController.doPrivileged(new GetIntegerAction(
+                    "org.glassfish.grizzly.npn.trustCache.ttl", 300)));
+
+    private static final int MAX_ENTRIES = 1024;
+
+    // the expiration times of the accepted chains
+    private static final BoundedCache<Key, Long> expirationTimes =
+            new BoundedCache<Key, Long>(MAX_ENTRIES);
+
+    private TrustedChains() {
+    }
+
+    /*
+     * Returns whether the chain was accepted before and hasn't expired
+     * since.
+     */
+    static boolean isTrusted(Key key) {
+        Long expirationTime = expirationTimes.get(key);
+        if (expirationTime == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() >= expirationTime) {
+            expirationTimes.remove(key, expirationTime);
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Records that the TrustManager accepted the chain.
+     */
+    static void setTrusted(Key key) {
+        long expirationTime = System.currentTimeMillis() + ttl;
+        for (X509Certificate cert : key.chain) {
+            expirationTime = Math.min(expirationTime,
+                    cert.getNotAfter().getTime());
+        }
+        if (expirationTime <= System.currentTimeMillis()) {
+            return;
+        }
+        expirationTimes.put(key, expirationTime);
+    }
+
+    static final class Key {
+
+        private final WeakReference<X509TrustManager> tm;
+        private final X509Certificate[] chain;
+        private final String authType;
+        private final boolean serverChain;
+        private final String peerHost;
+        private final List<SNIServerName> serverNames;
+        private final String identificationAlgorithm;
+        private final int protocolVersion;
+        private final Collection<SignatureAndHashAlgorithm> signAlgs;
+        private final WeakReference<AlgorithmConstraints> userConstraints;
+        private final int hash;
+
+        /*
+         * The chain mustn't be modified once it has been looked up.
+         */
+        Key(X509TrustManager tm, X509Certificate[] chain, String authType,
+                boolean serverChain, String peerHost,
+                List<SNIServerName> serverNames,
+                String identificationAlgorithm,
+                ProtocolVersion protocolVersion,
+                Collection<SignatureAndHashAlgorithm> signAlgs,
+                AlgorithmConstraints userConstraints) {
+            this.tm = BoundedCache.weak(tm);
+            this.chain = chain;
+            this.authType = authType;
+            this.serverChain = serverChain;
+            this.peerHost = peerHost;
+            this.serverNames = serverNames;
+            this.identificationAlgorithm = identificationAlgorithm;
+            this.protocolVersion = protocolVersion.v;
+            this.signAlgs = signAlgs;
+            this.userConstraints = BoundedCache.weak(userConstraints);
+            // certificates hash their encoding
+            this.hash = 31 * (31 * (31 * System.identityHashCode(tm) +
+                    Arrays.hashCode(chain)) + authType.hashCode()) +
+                    Objects.hashCode(peerHost);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)o;
+            return BoundedCache.sameReferent(tm, other.tm) &&
+                    (serverChain == other.serverChain) &&
+                    (protocolVersion == other.protocolVersion) &&
+                    BoundedCache.sameReferent(userConstraints,
+                            other.userConstraints) &&
+                    authType.equals(other.authType) &&
+                    Objects.equals(peerHost, other.peerHost) &&
+                    Objects.equals(identificationAlgorithm,
+                            other.identificationAlgorithm) &&
+                    Objects.equals(serverNames, other.serverNames) &&
+                    Objects.equals(signAlgs, other.signAlgs) &&
+                    Arrays.equals(chain, other.chain);
+        }
+
+    } // END Key
+
+} // END TrustedChains
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package org.glassfish.grizzly.npn;
+
+import java.nio.ByteBuffer;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.Status;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.glassfish.grizzly.npn.EnginePair.data;
+import static org.glassfish.grizzly.npn.EnginePair.unwrapAll;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CorkTest {
+
+    private EnginePair pair;
+    private SSLEngine client;
+
+    // the size of a record carrying 100 bytes
+    private int recordSize;
+
+    @Before
+    public void handshake() throws Exception {
+        pair = new EnginePair(EnginePair.newContext());
+        pair.handshake();
+        client = pair.client;
+
+        ByteBuffer net = ByteBuffer.allocate(
+                client.getSession().getPacketBufferSize());
+        SSLEngineResult result = client.wrap(data(100, 1), net);
+        recordSize = result.bytesProduced();
+        net.flip();
+        assertEquals(data(100, 1), unwrapAll(pair.server, net));
+    }
+
+    @Test
+    public void corkedDataGoesOutInOneRecord() throws Exception {
+        Corkable corkable = (Corkable) client;
+        corkable.cork();
+        assertTrue(corkable.isCorked());
+
+        ByteBuffer net = ByteBuffer.allocate(
+                client.getSession().getPacketBufferSize());
+        for (int i = 0; i < 10; i++) {
+            SSLEngineResult result = client.wrap(data(10, 2), net);
+            assertEquals(Status.OK, result.getStatus());
+            assertEquals(10, result.bytesConsumed());
+            assertEquals(0, result.bytesProduced());
+        }
+
+        corkable.uncork();
+        SSLEngineResult result = client.wrap(EnginePair.EMPTY, net);
+        assertEquals(Status.OK, result.getStatus());
+        assertEquals(recordSize, result.bytesProduced());
+        net.flip();
+        assertEquals(data(100, 2), unwrapAll(pair.server, net));
+    }
+
+    @Test
+    public void uncorkIntoBufferForOneRecord() throws Exception {
+        Corkable corkable = (Corkable) client;
+        corkable.cork();
+        ByteBuffer net = ByteBuffer.allocate(
+                client.getSession().getPacketBufferSize());
+        SSLEngineResult result = client.wrap(data(100, 2), net);
+        assertEquals(100, result.bytesConsumed());
+        assertEquals(0, result.bytesProduced());
+        corkable.uncork();
+
+        // Only the corked record fits, so the new data has to wait for
+        // the next call.
+        ByteBuffer next = data(100, 3);
+        ByteBuffer oneRecord = ByteBuffer.allocate(recordSize);
+        result = client.wrap(next, oneRecord);
+        assertEquals(Status.OK, result.getStatus());
+        assertEquals(0, result.bytesConsumed());
+        assertEquals(recordSize, result.bytesProduced());
+        oneRecord.flip();
+        assertEquals(data(100, 2), unwrapAll(pair.server, oneRecord));
+
+        oneRecord.clear();
+        result = client.wrap(next, oneRecord);
+        assertEquals(Status.OK, result.getStatus());
+        assertEquals(100, result.bytesConsumed());
+        assertEquals(recordSize, result.bytesProduced());
+        oneRecord.flip();
+        assertEquals(data(100, 3), unwrapAll(pair.server, oneRecord));
+    }
+
+    @Test
+    public void corkedDataGoesOutAheadOfCloseNotify() throws Exception {
+        Corkable corkable = (Corkable) client;
+        corkable.cork();
+        ByteBuffer net = ByteBuffer.allocate(
+                2 * client.getSession().getPacketBufferSize());
+        SSLEngineResult result = client.wrap(data(100, 2), net);
+        assertEquals(100, result.bytesConsumed());
+        assertEquals(0, result.bytesProduced());
+
+        client.closeOutbound();
+        for (int i = 0; i < 4 && !client.isOutboundDone(); i++) {
+            client.wrap(EnginePair.EMPTY, net);
+        }
+        assertTrue(client.isOutboundDone());
+        net.flip();
+
+        ByteBuffer app = ByteBuffer.allocate(
+                pair.server.getSession().getApplicationBufferSize());
+        result = pair.server.unwrap(net, app);
+        assertEquals(Status.OK, result.getStatus());
+        assertEquals(100, result.bytesProduced());
+        result = pair.server.unwrap(net, app);
+        assertEquals(Status.CLOSED, result.getStatus());
+        app.flip();
+        assertEquals(data(100, 2), app);
+    }
+
+}
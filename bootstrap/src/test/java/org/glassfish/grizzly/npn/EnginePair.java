@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package org.glassfish.grizzly.npn;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.TrustManagerFactory;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * A client and a server engine talking to each other through a pair of
+ * network buffers.
+ */
+final class EnginePair {
+
+    static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private static final int BUFFER_SIZE = 1 << 17;
+
+    final SSLEngine client;
+    final SSLEngine server;
+
+    // network data on its way to the server, and to the client
+    final ByteBuffer toServer = ByteBuffer.allocate(BUFFER_SIZE);
+    final ByteBuffer toClient = ByteBuffer.allocate(BUFFER_SIZE);
+
+    EnginePair(SSLContext context) {
+        this(context, context, "localhost", 443);
+    }
+
+    EnginePair(SSLContext clientContext, SSLContext serverContext,
+            String host, int port) {
+        client = clientContext.createSSLEngine(host, port);
+        client.setUseClientMode(true);
+        server = serverContext.createSSLEngine();
+        server.setUseClientMode(false);
+    }
+
+    /**
+     * Returns a TLS 1.2 context using the self-signed localhost
+     * certificate of the test resources as its key and trust material.
+     */
+    static SSLContext newContext() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream in = EnginePair.class.getResourceAsStream("/keystore.jks");
+        try {
+            keyStore.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(
+                KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(
+                TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+
+        SSLContext context = SSLContext.getInstance("TLSv1.2");
+        context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+        return context;
+    }
+
+    /**
+     * Returns a buffer holding length bytes of the specified value.
+     */
+    static ByteBuffer data(int length, int value) {
+        ByteBuffer data = ByteBuffer.allocate(length);
+        while (data.hasRemaining()) {
+            data.put((byte) value);
+        }
+        data.flip();
+        return data;
+    }
+
+    /**
+     * Runs the handshake until both engines are done.
+     */
+    void handshake() throws Exception {
+        client.beginHandshake();
+        server.beginHandshake();
+
+        ByteBuffer clientApp = ByteBuffer.allocate(BUFFER_SIZE);
+        ByteBuffer serverApp = ByteBuffer.allocate(BUFFER_SIZE);
+        for (int i = 0; i < 1000; i++) {
+            step(client, toServer, toClient, clientApp);
+            step(server, toClient, toServer, serverApp);
+            if ((client.getHandshakeStatus() == HandshakeStatus.NOT_HANDSHAKING) &&
+                    (server.getHandshakeStatus() == HandshakeStatus.NOT_HANDSHAKING)) {
+                break;
+            }
+        }
+
+        assertEquals(HandshakeStatus.NOT_HANDSHAKING, client.getHandshakeStatus());
+        assertEquals(HandshakeStatus.NOT_HANDSHAKING, server.getHandshakeStatus());
+        assertEquals(0, toServer.position());
+        assertEquals(0, toClient.position());
+    }
+
+    private static void step(SSLEngine engine, ByteBuffer out, ByteBuffer in,
+            ByteBuffer app) throws SSLException {
+        switch (engine.getHandshakeStatus()) {
+            case NEED_TASK:
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+                break;
+            case NEED_WRAP:
+                engine.wrap(EMPTY, out);
+                break;
+            case NEED_UNWRAP:
+                in.flip();
+                try {
+                    engine.unwrap(in, app);
+                } finally {
+                    in.compact();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Unwraps all the records of net, returning their plaintext.
+     */
+    static ByteBuffer unwrapAll(SSLEngine engine, ByteBuffer net)
+            throws SSLException {
+        ByteBuffer app = ByteBuffer.allocate(BUFFER_SIZE);
+        while (net.hasRemaining()) {
+            SSLEngineResult result = engine.unwrap(net, app);
+            assertEquals(SSLEngineResult.Status.OK, result.getStatus());
+            if (result.bytesConsumed() == 0) {
+                break;
+            }
+        }
+        app.flip();
+        return app;
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+
+package org.glassfish.grizzly.npn;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExternalSessionStoreTest {
+
+    private SSLContext clientContext;
+    private SSLContext firstServer;
+    private SSLContext secondServer;
+    private MapStore store;
+
+    @Before
+    public void shareStore() throws Exception {
+        clientContext = EnginePair.newContext();
+        firstServer = EnginePair.newContext();
+        secondServer = EnginePair.newContext();
+        store = new MapStore();
+        SessionCacheSupport.setExternalSessionStore(
+                firstServer.getServerSessionContext(), store);
+        SessionCacheSupport.setExternalSessionStore(
+                secondServer.getServerSessionContext(), store);
+    }
+
+    @After
+    public void removeStore() {
+        SessionCacheSupport.removeExternalSessionStore(
+                firstServer.getServerSessionContext());
+        SessionCacheSupport.removeExternalSessionStore(
+                secondServer.getServerSessionContext());
+        store.release.countDown();
+    }
+
+    @Test
+    public void sessionIsResumedOnAnotherServer() throws Exception {
+        EnginePair first = handshake(firstServer);
+        assertTrue(store.stored.await(5, TimeUnit.SECONDS));
+
+        EnginePair second = handshake(secondServer);
+        assertArrayEquals(first.server.getSession().getId(),
+                second.server.getSession().getId());
+        assertNull(store.writerClassLoader);
+    }
+
+    @Test
+    public void slowStoreFallsBackToFullHandshake() throws Exception {
+        EnginePair first = handshake(firstServer);
+        assertTrue(store.stored.await(5, TimeUnit.SECONDS));
+
+        store.slow = true;
+        EnginePair second = handshake(secondServer);
+        assertFalse(Arrays.equals(first.server.getSession().getId(),
+                second.server.getSession().getId()));
+
+        // the timed out lookup isn't interrupted
+        store.release.countDown();
+        assertTrue(store.answered.await(5, TimeUnit.SECONDS));
+        assertFalse(store.interrupted);
+    }
+
+    @Test
+    public void writerStopsOnceStoreIsRemoved() throws Exception {
+        handshake(firstServer);
+        assertTrue(store.stored.await(5, TimeUnit.SECONDS));
+        assertTrue(hasWriterThread());
+
+        removeStore();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (hasWriterThread() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertFalse(hasWriterThread());
+    }
+
+    private EnginePair handshake(SSLContext serverContext) throws Exception {
+        EnginePair pair = new EnginePair(clientContext, serverContext,
+                "localhost", 443);
+        pair.handshake();
+        return pair;
+    }
+
+    private static boolean hasWriterThread() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("grizzly-npn-session-store-")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class MapStore implements ExternalSessionStore {
+
+        final ConcurrentHashMap<ByteBuffer, byte[]> states =
+                new ConcurrentHashMap<ByteBuffer, byte[]>();
+        final CountDownLatch stored = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch answered = new CountDownLatch(1);
+        volatile boolean slow;
+        volatile boolean interrupted;
+        volatile ClassLoader writerClassLoader;
+
+        @Override
+        public byte[] get(byte[] sessionId) {
+            if (slow) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                answered.countDown();
+            }
+            return states.get(ByteBuffer.wrap(sessionId));
+        }
+
+        @Override
+        public void put(List<Entry> entries) {
+            writerClassLoader = Thread.currentThread().getContextClassLoader();
+            for (Entry entry : entries) {
+                states.put(ByteBuffer.wrap(entry.getSessionId()),
+                        entry.getState());
+            }
+            stored.countDown();
+        }
+
+        @Override
+        public boolean isNonBlocking() {
+            return false;
+        }
+
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+
+package org.glassfish.grizzly.npn;
+
+import java.nio.ByteBuffer;
+
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.Status;
+
+import org.junit.Test;
+
+import static org.glassfish.grizzly.npn.EnginePair.data;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MaxFragmentLengthTest {
+
+    static {
+        // read when the handshakers are first loaded
+        System.setProperty("org.glassfish.grizzly.npn.maxFragmentLength", "2048");
+        System.setProperty("org.glassfish.grizzly.npn.acceptMaxFragmentLength", "true");
+    }
+
+    @Test
+    public void recordsAreLimitedAfterNegotiation() throws Exception {
+        EnginePair pair = new EnginePair(EnginePair.newContext());
+        pair.handshake();
+
+        ByteBuffer net = ByteBuffer.allocate(1 << 16);
+        ByteBuffer app = data(5000, 1);
+        while (app.hasRemaining()) {
+            SSLEngineResult result = pair.client.wrap(app, net);
+            assertEquals(Status.OK, result.getStatus());
+        }
+        net.flip();
+
+        // Unwrap record by record, each must carry at most 2048 bytes.
+        ByteBuffer received = ByteBuffer.allocate(5000);
+        while (net.hasRemaining()) {
+            SSLEngineResult result = pair.server.unwrap(net, received);
+            assertEquals(Status.OK, result.getStatus());
+            assertTrue(result.bytesProduced() <= 2048);
+        }
+        received.flip();
+        assertEquals(data(5000, 1), received);
+    }
+
+}
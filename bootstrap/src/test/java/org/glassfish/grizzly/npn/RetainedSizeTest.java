@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+
+package org.glassfish.grizzly.npn;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+import java.security.Provider;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+
+import org.junit.Test;
+
+import static org.glassfish.grizzly.npn.EnginePair.data;
+import static org.glassfish.grizzly.npn.EnginePair.unwrapAll;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures what an engine keeps reachable per connection, by walking its
+ * object graph and leaving out whatever another engine of the same
+ * context reaches as well.  Sizes are shallow estimates for a 64-bit VM
+ * with compressed references.
+ */
+public class RetainedSizeTest {
+
+    // handshake-only classes that mustn't survive the handshake
+    private static final String[] HANDSHAKE_CLASSES = {
+        "sun.security.ssl.Handshaker",
+        "sun.security.ssl.HandshakeHash",
+        "sun.security.ssl.HandshakeMessage",
+        "sun.security.ssl.HandshakeOutStream",
+        "sun.security.ssl.HelloExtensions",
+    };
+
+    private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+    @Test
+    public void establishedClientDropsHandshakeState() throws Exception {
+        check(true);
+    }
+
+    @Test
+    public void establishedServerDropsHandshakeState() throws Exception {
+        check(false);
+    }
+
+    private static void check(boolean client) throws Exception {
+        SSLContext context = EnginePair.newContext();
+        // different ports, so that the second pair doesn't resume
+        EnginePair measured = new EnginePair(context, context, "localhost", 443);
+        EnginePair other = new EnginePair(context, context, "localhost", 444);
+        SSLEngine engine = client ? measured.client : measured.server;
+
+        Set<Object> shared = reachable(client ? other.client : other.server);
+        long before = retainedSize(engine, shared, false);
+
+        measured.handshake();
+        exchange(measured);
+        other.handshake();
+        exchange(other);
+
+        shared = reachable(client ? other.client : other.server);
+        long after = retainedSize(engine, shared, true);
+
+        System.out.println((client ? "Client" : "Server") +
+                " engine retained size: " + before + " bytes before, " +
+                after + " bytes after the handshake");
+        assertTrue(after < MAX_RETAINED_SIZE);
+    }
+
+    private static void exchange(EnginePair pair) throws Exception {
+        ByteBuffer net = ByteBuffer.allocate(
+                pair.client.getSession().getPacketBufferSize());
+        pair.client.wrap(data(100, 1), net);
+        net.flip();
+        assertEquals(data(100, 1), unwrapAll(pair.server, net));
+
+        net.clear();
+        pair.server.wrap(data(100, 2), net);
+        net.flip();
+        assertEquals(data(100, 2), unwrapAll(pair.client, net));
+    }
+
+    private static long retainedSize(SSLEngine engine, Set<Object> shared,
+            boolean established) throws Exception {
+        long size = 0;
+        for (Object o : reachable(engine)) {
+            if (established) {
+                assertFalse(o.getClass().getName(), isHandshakeState(o));
+            }
+            if (!shared.contains(o)) {
+                size += shallowSize(o);
+            }
+        }
+        return size;
+    }
+
+    private static boolean isHandshakeState(Object o) {
+        for (Class<?> c = o.getClass(); c != null; c = c.getSuperclass()) {
+            for (String name : HANDSHAKE_CLASSES) {
+                if (c.getName().equals(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Returns the objects reachable from root through instance fields.
+     * The context, class loaders, providers and the like are shared by
+     * all engines, so the walk doesn't enter them.
+     */
+    private static Set<Object> reachable(Object root) throws Exception {
+        Set<Object> seen = Collections.newSetFromMap(
+                new IdentityHashMap<Object, Boolean>());
+        Deque<Object> pending = new ArrayDeque<Object>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Object o = pending.pop();
+            if (!seen.add(o) || isShared(o)) {
+                continue;
+            }
+
+            Class<?> type = o.getClass();
+            if (type.isArray()) {
+                if (!type.getComponentType().isPrimitive()) {
+                    for (int i = 0; i < Array.getLength(o); i++) {
+                        Object element = Array.get(o, i);
+                        if (element != null) {
+                            pending.push(element);
+                        }
+                    }
+                }
+                continue;
+            }
+
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) ||
+                            field.getType().isPrimitive()) {
+                        continue;
+                    }
+                    try {
+                        field.setAccessible(true);
+                    } catch (RuntimeException e) {
+                        // not open to reflection
+                        continue;
+                    }
+                    Object value = field.get(o);
+                    if (value != null) {
+                        pending.push(value);
+                    }
+                }
+            }
+        }
+        return seen;
+    }
+
+    private static boolean isShared(Object o) {
+        return (o instanceof Class) || (o instanceof ClassLoader) ||
+                (o instanceof Thread) || (o instanceof Provider) ||
+                (o instanceof ProtectionDomain) || (o instanceof SSLContext) ||
+                (o instanceof SSLContextSpi);
+    }
+
+    private static long shallowSize(Object o) {
+        Class<?> type = o.getClass();
+        long size;
+        if (type.isArray()) {
+            size = 16 + (long) Array.getLength(o) *
+                    sizeOf(type.getComponentType());
+        } else {
+            size = 12;
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        size += sizeOf(field.getType());
+                    }
+                }
+            }
+        }
+        return (size + 7) & ~7L;
+    }
+
+    private static int sizeOf(Class<?> type) {
+        if ((type == long.class) || (type == double.class)) {
+            return 8;
+        } else if ((type == byte.class) || (type == boolean.class)) {
+            return 1;
+        } else if ((type == short.class) || (type == char.class)) {
+            return 2;
+        }
+        // int, float and compressed references
+        return 4;
+    }
+
+}
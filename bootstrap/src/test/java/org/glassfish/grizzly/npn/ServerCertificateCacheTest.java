@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+
+package org.glassfish.grizzly.npn;
+
+import java.io.InputStream;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ServerCertificateCacheTest {
+
+    static {
+        // read when the cache is first loaded
+        System.setProperty("org.glassfish.grizzly.npn.serverCertificateCache", "true");
+    }
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    @Test
+    public void choiceIsCachedUntilInvalidated() throws Exception {
+        CountingKeyManager km = new CountingKeyManager(loadKeyManager());
+        SSLContext serverContext = SSLContext.getInstance("TLSv1.2");
+        serverContext.init(new KeyManager[] { km }, null, null);
+        SSLContext clientContext = EnginePair.newContext();
+
+        handshake(clientContext, serverContext, 1);
+        handshake(clientContext, serverContext, 2);
+        assertEquals(1, km.choices.get());
+
+        CertificateCacheSupport.invalidate();
+        handshake(clientContext, serverContext, 3);
+        assertEquals(2, km.choices.get());
+        handshake(clientContext, serverContext, 4);
+        assertEquals(2, km.choices.get());
+    }
+
+    private static void handshake(SSLContext clientContext,
+            SSLContext serverContext, int port) throws Exception {
+        // a port of its own for each, so that sessions aren't resumed
+        EnginePair pair = new EnginePair(clientContext, serverContext,
+                "localhost", port);
+        // a single suite, so that only RSA credentials are asked for
+        pair.client.setEnabledCipherSuites(new String[] {
+                "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256" });
+        pair.handshake();
+    }
+
+    private static X509ExtendedKeyManager loadKeyManager() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream in = ServerCertificateCacheTest.class
+                .getResourceAsStream("/keystore.jks");
+        try {
+            keyStore.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(
+                KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD);
+        return (X509ExtendedKeyManager) kmf.getKeyManagers()[0];
+    }
+
+    private static final class CountingKeyManager
+            extends X509ExtendedKeyManager {
+
+        private final X509ExtendedKeyManager km;
+        final AtomicInteger choices = new AtomicInteger();
+
+        CountingKeyManager(X509ExtendedKeyManager km) {
+            this.km = km;
+        }
+
+        @Override
+        public String chooseEngineServerAlias(String keyType,
+                Principal[] issuers, SSLEngine engine) {
+            choices.incrementAndGet();
+            return km.chooseEngineServerAlias(keyType, issuers, engine);
+        }
+
+        @Override
+        public String chooseServerAlias(String keyType, Principal[] issuers,
+                Socket socket) {
+            choices.incrementAndGet();
+            return km.chooseServerAlias(keyType, issuers, socket);
+        }
+
+        @Override
+        public String[] getClientAliases(String keyType, Principal[] issuers) {
+            return km.getClientAliases(keyType, issuers);
+        }
+
+        @Override
+        public String chooseClientAlias(String[] keyType, Principal[] issuers,
+                Socket socket) {
+            return km.chooseClientAlias(keyType, issuers, socket);
+        }
+
+        @Override
+        public String[] getServerAliases(String keyType, Principal[] issuers) {
+            return km.getServerAliases(keyType, issuers);
+        }
+
+        @Override
+        public X509Certificate[] getCertificateChain(String alias) {
+            return km.getCertificateChain(alias);
+        }
+
+        @Override
+        public PrivateKey getPrivateKey(String alias) {
+            return km.getPrivateKey(alias);
+        }
+
+    }
+
+}
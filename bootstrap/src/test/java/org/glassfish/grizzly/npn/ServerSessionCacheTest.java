@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+
+package org.glassfish.grizzly.npn;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ServerSessionCacheTest {
+
+    private SSLContext clientContext;
+    private SSLContext serverContext;
+    private MapCache cache;
+
+    @Before
+    public void installCache() throws Exception {
+        clientContext = EnginePair.newContext();
+        serverContext = EnginePair.newContext();
+        cache = new MapCache();
+        SessionCacheSupport.setServerSessionCache(
+                serverContext.getServerSessionContext(), cache);
+    }
+
+    @After
+    public void removeCache() {
+        SessionCacheSupport.removeServerSessionCache(
+                serverContext.getServerSessionContext());
+    }
+
+    @Test
+    public void sessionIsResumedFromCache() throws Exception {
+        EnginePair first = handshake();
+        assertTrue(cache.sessions.containsKey(
+                ByteBuffer.wrap(first.server.getSession().getId())));
+
+        EnginePair second = handshake();
+        assertArrayEquals(first.server.getSession().getId(),
+                second.server.getSession().getId());
+    }
+
+    @Test
+    public void cachedSessionsBelongToTheContext() throws Exception {
+        SSLSessionContext context = serverContext.getServerSessionContext();
+        assertSame(context, handshake().server.getSession().getSessionContext());
+        assertSame(context, handshake().server.getSession().getSessionContext());
+    }
+
+    @Test
+    public void contextTimeoutApplies() throws Exception {
+        serverContext.getServerSessionContext().setSessionTimeout(1);
+        EnginePair first = handshake();
+        Thread.sleep(1100);
+
+        EnginePair second = handshake();
+        assertFalse(Arrays.equals(first.server.getSession().getId(),
+                second.server.getSession().getId()));
+        assertFalse(cache.sessions.containsKey(
+                ByteBuffer.wrap(first.server.getSession().getId())));
+    }
+
+    private EnginePair handshake() throws Exception {
+        EnginePair pair = new EnginePair(clientContext, serverContext,
+                "localhost", 443);
+        pair.handshake();
+        return pair;
+    }
+
+    private static final class MapCache implements ServerSessionCache {
+
+        final ConcurrentHashMap<ByteBuffer, SSLSession> sessions =
+                new ConcurrentHashMap<ByteBuffer, SSLSession>();
+
+        @Override
+        public SSLSession get(byte[] sessionId) {
+            return sessions.get(ByteBuffer.wrap(sessionId));
+        }
+
+        @Override
+        public void put(SSLSession session) {
+            sessions.put(ByteBuffer.wrap(session.getId()), session);
+        }
+
+        @Override
+        public void remove(byte[] sessionId) {
+            sessions.remove(ByteBuffer.wrap(sessionId));
+        }
+
+    }
+
+}
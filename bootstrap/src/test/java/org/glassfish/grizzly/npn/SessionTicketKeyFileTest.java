@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+
+package org.glassfish.grizzly.npn;
+
+import java.io.File;
+import java.util.Arrays;
+
+import javax.net.ssl.SSLContext;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+
+public class SessionTicketKeyFileTest {
+
+    static {
+        // read when the handshakers and ticket keys are first loaded
+        System.setProperty("org.glassfish.grizzly.npn.issueSessionTickets", "true");
+        System.setProperty("org.glassfish.grizzly.npn.sessionTickets", "true");
+        System.setProperty("org.glassfish.grizzly.npn.sessionTicketKeyFile",
+                new File("target", "missing-ticket-keys").getAbsolutePath());
+    }
+
+    @Test
+    public void unreadableKeyFileDisablesTickets() throws Exception {
+        SSLContext clientContext = EnginePair.newContext();
+        EnginePair first = new EnginePair(clientContext,
+                EnginePair.newContext(), "example.com", 443);
+        first.handshake();
+
+        // without a key, the other server can't resume the session
+        EnginePair second = new EnginePair(clientContext,
+                EnginePair.newContext(), "example.com", 443);
+        second.handshake();
+
+        assertFalse(Arrays.equals(first.server.getSession().getId(),
+                second.server.getSession().getId()));
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+
+package org.glassfish.grizzly.npn;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLContext;
+
+import org.junit.Test;
+
+import static org.glassfish.grizzly.npn.EnginePair.data;
+import static org.glassfish.grizzly.npn.EnginePair.unwrapAll;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SessionTicketTest {
+
+    static {
+        // read when the handshakers are first loaded
+        System.setProperty("org.glassfish.grizzly.npn.issueSessionTickets", "true");
+        System.setProperty("org.glassfish.grizzly.npn.sessionTickets", "true");
+    }
+
+    @Test
+    public void sessionResumesOnAnotherServer() throws Exception {
+        SSLContext clientContext = EnginePair.newContext();
+        EnginePair first = new EnginePair(clientContext,
+                EnginePair.newContext(), "example.com", 443);
+        first.handshake();
+
+        // The second server has a session cache of its own, so it can
+        // only resume the session from the ticket, whose keys are shared
+        // within the JVM.
+        EnginePair second = new EnginePair(clientContext,
+                EnginePair.newContext(), "example.com", 443);
+        second.handshake();
+
+        assertArrayEquals(first.client.getSession().getId(),
+                second.client.getSession().getId());
+        assertArrayEquals(first.server.getSession().getId(),
+                second.server.getSession().getId());
+        assertEquals(first.server.getSession().getCipherSuite(),
+                second.server.getSession().getCipherSuite());
+        assertEquals(Collections.<SNIServerName>singletonList(
+                        new SNIHostName("example.com")),
+                ((ExtendedSSLSession) second.server.getSession())
+                        .getRequestedServerNames());
+
+        // both ends derived the same keys from the restored master secret
+        ByteBuffer net = ByteBuffer.allocate(
+                second.client.getSession().getPacketBufferSize());
+        second.client.wrap(data(100, 1), net);
+        net.flip();
+        assertEquals(data(100, 1), unwrapAll(second.server, net));
+    }
+
+    @Test
+    public void peerCertificatesAreRestored() throws Exception {
+        SSLContext clientContext = EnginePair.newContext();
+        EnginePair first = new EnginePair(clientContext,
+                EnginePair.newContext(), "example.org", 443);
+        first.server.setNeedClientAuth(true);
+        first.handshake();
+
+        EnginePair second = new EnginePair(clientContext,
+                EnginePair.newContext(), "example.org", 443);
+        second.server.setNeedClientAuth(true);
+        second.handshake();
+
+        assertArrayEquals(first.server.getSession().getId(),
+                second.server.getSession().getId());
+        assertEquals(
+                Arrays.asList(first.server.getSession().getPeerCertificates()),
+                Arrays.asList(second.server.getSession().getPeerCertificates()));
+    }
+
+}